@@ -3,25 +3,61 @@ package life.qbic.omero;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.imageio.ImageIO;
+import omero.ConcurrencyException;
+import omero.RInt;
+import omero.RLong;
+import omero.RString;
+import omero.RType;
 import omero.ServerError;
+import omero.SessionException;
 import omero.api.ExporterPrx;
+import omero.api.IAdminPrx;
+import omero.api.IQueryPrx;
 import omero.api.RawFileStorePrx;
 import omero.api.RenderingEnginePrx;
 import omero.api.ThumbnailStorePrx;
@@ -52,6 +88,7 @@ import omero.model.FileAnnotationI;
 import omero.model.IObject;
 import omero.model.ImageAnnotationLink;
 import omero.model.ImageAnnotationLinkI;
+import omero.model.MapAnnotation;
 import omero.model.NamedValue;
 import omero.model.OriginalFile;
 import omero.model.OriginalFileI;
@@ -61,6 +98,9 @@ import omero.model.ProjectDatasetLinkI;
 import omero.model.ProjectI;
 import omero.model.enums.ChecksumAlgorithmSHA1160;
 import omero.romio.PlaneDef;
+import omero.sys.EventContext;
+import omero.sys.ParametersI;
+import omero.sys.Roles;
 
 /////////////////////////////////////////////////////
 
@@ -81,13 +121,94 @@ public class BasicOMEROClient {
   private final Gateway gateway;
   private final int serverId;
   //////////////////
+  private static final int DEFAULT_THUMBNAIL_SIZE = 96;
+  private static final String OME_TIFF_EXTENSION = ".ome.tiff";
+  private static final String OME_TIFF_FORMAT = "OMETiff";
+  private static final long DEFAULT_OME_TIFF_CACHE_BYTES = 4L * 1024 * 1024 * 1024;
+  private static final int MAX_GROUP_PARALLELISM = 8;
+  /**
+   * The number of threads running watched calls. Calls abandoned at their deadline keep a thread
+   * until the server answers, further calls wait for a thread within their own deadline.
+   */
+  private static final int MAX_CALL_THREADS = 32;
+  private static final long HEDGE_LOGIN_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(1);
+  /**
+   * Set while a thread works for one of the client's own fan-outs, such as a bulk export. Calls of
+   * such threads wait for a concurrency slot instead of being rejected.
+   */
+  private static final ThreadLocal<Boolean> FAN_OUT_WORKER = ThreadLocal.withInitial(() -> false);
+  private static final int MAX_IMAGE_FORMATS = 100_000;
+  private static final int MAX_IMAGE_GROUPS = 100_000;
+  /**
+   * The group id of a security context that reads from all groups of the user
+   */
+  private static final long ALL_GROUPS = -1L;
+  /**
+   * Image count, pixel volume, channel sum and maximal channel count of the images i with pixels p
+   */
+  private static final String IMAGE_AGGREGATES = "count(distinct i.id),"
+      + " sum(cast(p.sizeX as long) * p.sizeY * p.sizeZ * p.sizeC * p.sizeT), sum(p.sizeC),"
+      + " max(p.sizeC)";
+  /**
+   * Joins the dataset links dl of the images with the datasets of the project :project
+   */
+  private static final String PROJECT_IMAGE_LINKS = " DatasetImageLink dl, ProjectDatasetLink pl"
+      + " where pl.parent.id = :project and dl.parent.id = pl.child.id";
+  private static final String[] METADATA_COLUMNS = {"image_id", "image_name", "dataset_ids",
+      "size_x", "size_y", "size_z", "size_c", "size_t", "pixel_type", "channel_names"};
+  private static final int METADATA_PAGE_SIZE = 500;
+
   private String sessionId;
   private String sessionUuid;
   private SecurityContext securityContext;
+  private List<Long> groupIds = Collections.emptyList();
+  private final Map<Long, SecurityContext> groupContexts = new ConcurrentHashMap<>();
+  private final Map<Long, Long> projectGroups = new ConcurrentHashMap<>();
+  private final Map<Long, Long> datasetGroups = new ConcurrentHashMap<>();
+  /**
+   * Group ids of recently used images, least recently used first
+   */
+  private final Map<Long, Long> imageGroups =
+      Collections.synchronizedMap(new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+          return size() > MAX_IMAGE_GROUPS;
+        }
+      });
 
+  private volatile HashMap<Long, String> projectMap;
+  private volatile HashMap<Long, Set<DatasetData>> datasetMap;
 
-  private HashMap<Long, String> projectMap;
-  private HashMap<Long, Set<DatasetData>> datasetMap;
+  private volatile ImagePrefetcher prefetcher;
+  private final ImageFormatIndex imageFormats = new ImageFormatIndex(MAX_IMAGE_FORMATS);
+  private OmeTiffCache omeTiffCache;
+  private volatile MapAnnotationIndex mapAnnotationIndex;
+  private volatile ConcurrencyLimiter concurrencyLimiter;
+  private volatile long callTimeoutNanos;
+  /**
+   * The latency percentile after which idempotent reads are hedged, NaN while hedging is disabled
+   */
+  private volatile double hedgePercentile = Double.NaN;
+  private final LatencyTracker latencies = new LatencyTracker();
+  private final AtomicLong hedgedCalls = new AtomicLong();
+  private final Object executorLock = new Object();
+  private ExecutorService callExecutor;
+  private ExecutorService groupExecutor;
+  private final Object hedgeGatewayLock = new Object();
+  private Gateway hedgeGateway;
+  private boolean hedgeLoginRunning;
+  /**
+   * The time before which no new login of the second session is tried after a failed one, in
+   * {@link System#nanoTime()} units, only meaningful while hedgeLoginFailed is true
+   */
+  private long hedgeLoginRetryNanos;
+  private boolean hedgeLoginFailed;
+  /**
+   * Receive the changes of the catalog sync after they were applied to the client's own caches
+   */
+  private final List<CatalogChangeListener> catalogChangeListeners =
+      new CopyOnWriteArrayList<>();
+  private CatalogSync catalogSync;
 
   public BasicOMEROClient(String username, String password, String hostname, int port) {
 
@@ -145,13 +266,28 @@ public class BasicOMEROClient {
       ExperimenterData user = this.gateway.connect(loginCredentials);
       this.securityContext = new SecurityContext(user.getGroupId());
       this.sessionId = gateway.getSessionId(user);
-      this.sessionUuid = gateway.getAdminService(securityContext).getEventContext().sessionUuid;
+      IAdminPrx adminService = gateway.getAdminService(securityContext);
+      EventContext eventContext = adminService.getEventContext();
+      this.sessionUuid = eventContext.sessionUuid;
+
+      // the user and guest groups contain every user but no data
+      Roles roles = adminService.getSecurityRoles();
+      List<Long> memberGroupIds = new ArrayList<>();
+      memberGroupIds.add(user.getGroupId());
+      for (Long groupId : eventContext.memberOfGroups) {
+        if (groupId != roles.userGroupId && groupId != roles.guestGroupId
+            && !memberGroupIds.contains(groupId)) {
+          memberGroupIds.add(groupId);
+        }
+      }
+      this.groupIds = Collections.unmodifiableList(memberGroupIds);
+      this.groupContexts.put(user.getGroupId(), securityContext);
     } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
+      throw new RetryableOperationException(
           "Error while accessing omero service: broken connection, expired session or not logged in",
           dsOutOfServiceException);
     } catch (ServerError serverError) {
-      throw new RuntimeException("Omero store interaction failed.", serverError);
+      throw storeInteractionFailed(serverError);
     }
   }
 
@@ -217,43 +353,24 @@ public class BasicOMEROClient {
    * @return a List containing annotation data for the given image matching the desired class
    */
   private <T extends AnnotationData> List<T> loadAnnotationsForImage(long imageID, Class<T> type) {
-    ImageData image;
-    List<AnnotationData> annotations;
-
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
       connect();
     }
 
-    try {
+    SecurityContext context = contextForImage(imageID);
+    ImageData image = callServer(OperationClass.BROWSE, true, gateway -> {
       BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
-      image = browse.getImage(this.securityContext, imageID);
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
-    }
-
+      return browse.getImage(context, imageID);
+    });
 
     List<Class<? extends AnnotationData>> types = new ArrayList<>();
     types.add(type);
 
-    try {
+    List<AnnotationData> annotations = callServer(OperationClass.BROWSE, true, gateway -> {
       MetadataFacility metadata = gateway.getFacility(MetadataFacility.class);
-      annotations = metadata.getAnnotations(securityContext, image, types, null);
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
-    }
+      return metadata.getAnnotations(context, image, types, null);
+    });
 
     return (annotations != null) ? annotations.stream().map(annotationData -> (T) annotationData)
         .collect(Collectors.toList()) : new ArrayList<T>();
@@ -268,58 +385,130 @@ public class BasicOMEROClient {
    * @return a {@link BufferedImage} for the given {@link ImageData}
    */
   public BufferedImage renderImage(ImageData image, int zPlane, int timePoint) {
+    EncodedImage encodedImage = renderImageEncoded(image, zPlane, timePoint);
+
+    try (ByteArrayInputStream stream = new ByteArrayInputStream(encodedImage.getBytes())) {
+      return ImageIO.read(stream);
+    } catch (IOException ioException) {
+      throw new RuntimeException("Image data could now be read.", ioException);
+    }
+  }
+
+  /**
+   * Renders a plane of an image and returns the compressed bytes as delivered by the server. The
+   * server's default compression level is used.
+   *
+   * @param image imageData object from Omero
+   * @param zPlane selected slide of the vertical axis of a 3D image, else 0
+   * @param timePoint selected time point of a time series, else 0
+   * @return the rendered plane as {@link EncodedImage}
+   * @see #renderImageEncoded(ImageData, int, int, float)
+   * @since 1.3.0
+   */
+  public EncodedImage renderImageEncoded(ImageData image, int zPlane, int timePoint) {
+    return renderImageEncoded(image, zPlane, timePoint, Float.NaN);
+  }
+
+  /**
+   * Renders a plane of an image and returns the compressed bytes as delivered by the server. The
+   * bytes are not decoded, so they can be served to a browser without any pixel processing.
+   *
+   * @param image imageData object from Omero
+   * @param zPlane selected slide of the vertical axis of a 3D image, else 0
+   * @param timePoint selected time point of a time series, else 0
+   * @param compressionQuality the compression quality between 0 (smallest) and 1 (best quality).
+   *        {@link Float#NaN} keeps the server default.
+   * @return the rendered plane as {@link EncodedImage}
+   * @since 1.3.0
+   */
+  public EncodedImage renderImageEncoded(ImageData image, int zPlane, int timePoint,
+      float compressionQuality) {
+    if (!Float.isNaN(compressionQuality)
+        && (compressionQuality < 0.0f || compressionQuality > 1.0f)) {
+      throw new IllegalArgumentException(
+          "Compression quality must be between 0 and 1 but was " + compressionQuality);
+    }
 
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
       connect();
     }
 
-    BufferedImage res;
-
     PixelsData pixels = image.getDefaultPixels();
     long pixelsId = pixels.getId();
-    RenderingEnginePrx proxy;
-    ByteArrayInputStream stream;
+    SecurityContext context = contextForImage(image.getId());
+    byte[] compressed = callServer(OperationClass.RENDER, false, gateway -> {
+      RenderingEnginePrx proxy = gateway.getRenderingService(context, pixelsId);
+      try {
+        proxy.lookupPixels(pixelsId);
+        if (!(proxy.lookupRenderingDef(pixelsId))) {
+          proxy.resetDefaultSettings(true);
+          proxy.lookupRenderingDef(pixelsId);
+        }
+        proxy.load();
+        // Now can interact with the rendering engine.
+        proxy.setActive(0, Boolean.FALSE);
+        if (!Float.isNaN(compressionQuality)) {
+          proxy.setCompressionLevel(compressionQuality);
+        }
+        PlaneDef pDef = new PlaneDef();
+        pDef.z = zPlane;
+        pDef.t = timePoint;
+        pDef.slice = omero.romio.XY.value;
+        return proxy.renderCompressed(pDef);
+      } finally {
+        closeQuietly(proxy);
+      }
+    });
+
+    return new EncodedImage(compressed, EncodedImage.CONTENT_TYPE_JPEG);
+  }
+
+  /**
+   * Renders a plane of an image and writes the compressed bytes to the given stream. The stream is
+   * neither flushed nor closed.
+   *
+   * @param image imageData object from Omero
+   * @param zPlane selected slide of the vertical axis of a 3D image, else 0
+   * @param timePoint selected time point of a time series, else 0
+   * @param compressionQuality the compression quality between 0 and 1, {@link Float#NaN} for the
+   *        server default
+   * @param outputStream the sink the encoded image is written to
+   * @return the content type of the written bytes
+   * @since 1.3.0
+   */
+  public String renderImageTo(ImageData image, int zPlane, int timePoint, float compressionQuality,
+      OutputStream outputStream) {
+    EncodedImage encodedImage = renderImageEncoded(image, zPlane, timePoint, compressionQuality);
     try {
-      proxy = gateway.getRenderingService(securityContext, pixelsId);
-      proxy.lookupPixels(pixelsId);
-      if (!(proxy.lookupRenderingDef(pixelsId))) {
-        proxy.resetDefaultSettings(true);
-        proxy.lookupRenderingDef(pixelsId);
-      }
-      proxy.load();
-      // Now can interact with the rendering engine.
-      proxy.setActive(0, Boolean.FALSE);
-      PlaneDef pDef = new PlaneDef();
-      pDef.z = zPlane;
-      pDef.t = timePoint;
-      pDef.slice = omero.romio.XY.value;
-      // render the data uncompressed.
-      int[] uncompressed = proxy.renderAsPackedInt(pDef);
-      byte[] compressed = proxy.renderCompressed(pDef);
-      // Create a buffered image
-      stream = new ByteArrayInputStream(compressed);
-
-      res = ImageIO.read(stream);
-    } catch (ServerError serverError) {
-      throw new RuntimeException("Omero store interaction failed.", serverError);
+      encodedImage.writeTo(outputStream);
     } catch (IOException ioException) {
-      throw new RuntimeException("Image data could now be read.", ioException);
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
+      throw new RuntimeException("Could not write rendered image to the output stream.",
+          ioException);
     }
+    return encodedImage.getContentType();
+  }
 
+  /**
+   * Closes a stateful OMERO service. Failures are ignored since the service is no longer needed.
+   *
+   * @param service the service to be closed
+   */
+  private static void closeQuietly(omero.api.StatefulServiceInterfacePrx service) {
+    if (service == null) {
+      return;
+    }
+    // Ice aborts calls of interrupted threads, so the interrupt is restored after closing
+    boolean interrupted = Thread.interrupted();
     try {
-      proxy.close();
-      stream.close();
-    } catch (ServerError serverError) {
-      throw new RuntimeException("Omero store interaction failed.", serverError);
-    } catch (IOException ioException) {
-      throw new RuntimeException("Stream could not be closed.", ioException);
+      service.close();
+    } catch (ServerError | Ice.LocalException ignored) {
+      // the server cleans up the service when the session ends
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
     }
-    return res;
   }
 
   /**
@@ -328,10 +517,39 @@ public class BasicOMEROClient {
    * @see Gateway#disconnect()
    */
   public void disconnect() {
+    ImagePrefetcher currentPrefetcher = this.prefetcher;
+    if (currentPrefetcher != null) {
+      currentPrefetcher.cancel();
+    }
+    stopCatalogSync();
+    disconnectHedgeGateway();
+    shutdownExecutors();
     this.gateway.disconnect();
     this.sessionId = null;
     this.sessionUuid = null;
     this.securityContext = null;
+    this.groupIds = Collections.emptyList();
+    this.groupContexts.clear();
+    this.projectGroups.clear();
+    this.datasetGroups.clear();
+    this.imageGroups.clear();
+  }
+
+  /**
+   * Stops the thread pools of the client. Running tasks are not interrupted, they end with the
+   * session. The pools are created again when needed after the next connect.
+   */
+  private void shutdownExecutors() {
+    synchronized (executorLock) {
+      if (callExecutor != null) {
+        callExecutor.shutdown();
+        callExecutor = null;
+      }
+      if (groupExecutor != null) {
+        groupExecutor.shutdown();
+        groupExecutor = null;
+      }
+    }
   }
 
   /**
@@ -347,27 +565,85 @@ public class BasicOMEROClient {
       connect();
     }
 
-    String downloadLinkAddress;
-    try {
-      BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
-      ImageData image = browse.getImage(this.securityContext, imageID);
-      if (image.getFormat() != null) {
-        downloadLinkAddress = "https://" + hostname + "/omero/webgateway/archived_files/download/"
-            + imageID + "?server=" + serverId + "&bsession=" + sessionUuid;
-      } else {
-        throw new IllegalArgumentException(
-            "No image format given. Image is not available for download.");
+    resolveImageFormats(Collections.singletonList(imageID));
+    if (imageFormats.isMissing(imageID)) {
+      throw new IllegalArgumentException("Image " + imageID + " could not be found.");
+    }
+    if (imageFormats.getFormat(imageID) == null) {
+      throw new IllegalArgumentException(
+          "No image format given. Image is not available for download.");
+    }
+    return composeArchivedFileDownloadLink(imageID);
+  }
+
+  /**
+   * Builds download links for many images at once. The formats of all images that have not been
+   * seen before are fetched with a single query and cached, so repeated calls do not contact the
+   * server.
+   *
+   * @param imageIds the omero identifiers of the desired images
+   * @return download links by image id. Images without format or not found are left out.
+   * @see #getImageDownloadLink(long)
+   * @since 1.3.0
+   */
+  public Map<Long, String> getImageDownloadLinks(Collection<Long> imageIds) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    resolveImageFormats(imageIds);
+
+    Map<Long, String> downloadLinks = new LinkedHashMap<>();
+    for (Long imageId : imageIds) {
+      if (imageFormats.getFormat(imageId) != null) {
+        downloadLinks.put(imageId, composeArchivedFileDownloadLink(imageId));
       }
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
     }
-    return downloadLinkAddress;
+    return downloadLinks;
+  }
+
+  /**
+   * Empties the cache of image formats used to build download links. The cache holds the formats of
+   * the {@value #MAX_IMAGE_FORMATS} most recently used images, including images that were not
+   * found. Entries of changed images are dropped by the catalog sync; without a running sync the
+   * cache can be cleared to pick up images that became visible to the user later.
+   *
+   * @since 1.3.0
+   */
+  public void clearImageFormatCache() {
+    imageFormats.clear();
+  }
+
+  /**
+   * Fetches the formats of all images not yet in the format index with a single query. Images the
+   * server does not return are remembered as missing.
+   *
+   * @param imageIds the omero identifiers of images
+   */
+  private void resolveImageFormats(Collection<Long> imageIds) {
+    Set<Long> unknownIds = imageFormats.unknown(imageIds);
+    if (unknownIds.isEmpty()) {
+      return;
+    }
+
+    SecurityContext context = allGroupsContext();
+    Collection<ImageData> images = callServer(OperationClass.BROWSE, true, gateway -> {
+      BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
+      return browse.getImages(context, unknownIds);
+    });
+    for (ImageData image : images) {
+      imageFormats.put(image.getId(), image.getFormat());
+      unknownIds.remove(image.getId());
+    }
+    for (Long missingId : unknownIds) {
+      imageFormats.putMissing(missingId);
+    }
+  }
+
+  private String composeArchivedFileDownloadLink(long imageId) {
+    return "https://" + hostname + "/omero/webgateway/archived_files/download/" + imageId
+        + "?server=" + serverId + "&bsession=" + sessionUuid;
   }
 
   /**
@@ -385,137 +661,616 @@ public class BasicOMEROClient {
       this.connect();
     }
 
-    final String omeTiffExtension = ".ome.tiff";
-    final String omeTiffFormat = "OMETiff";
-    try {
-      BrowseFacility browseFacility = gateway.getFacility(BrowseFacility.class);
-      ImageData imageData = browseFacility.getImage(securityContext, imageId);
+    resolveImageFormats(Collections.singletonList(imageId));
+    if (OME_TIFF_FORMAT.equals(imageFormats.getFormat(imageId))) {
+      return composeArchivedFileDownloadLink(imageId);
+    }
 
-      if (imageData.getFormat() != null) {
-        if (imageData.getFormat().equals(omeTiffFormat)) {
-          return getImageDownloadLink(imageId);
-        }
-      }
+    return getAnnotationFileDownloadLink(findOrAttachOmeTiff(imageId));
+  }
 
-      Long annotationId = findFileAnnotation(imageId, omeTiffFormat, omeTiffExtension);
-      if (annotationId == null) {
-        File omeTiffFile = generateOmeTiff(imageId);
+  /**
+   * Returns the OME-TIFF file annotation of an image. If the image has none, an OME-TIFF is
+   * generated and attached to the image.
+   *
+   * @param imageId the image for which an OME TIFF should be provided
+   * @return the annotation id of the OME-TIFF file annotation
+   */
+  private long findOrAttachOmeTiff(long imageId) {
+    Long annotationId = findFileAnnotation(imageId, OME_TIFF_FORMAT, OME_TIFF_EXTENSION);
+    if (annotationId == null) {
+      try (OmeTiffCache.Entry omeTiffFile = generateOmeTiff(imageId)) {
         annotationId = attachFileAnnotation(imageId, omeTiffFile);
       }
-      return getAnnotationFileDownloadLink(annotationId);
-
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
     }
+    return annotationId;
   }
 
   /**
-   * This method searches for file annotations with the given file format and uses file extension as
-   * a fallback
+   * Exports all images of a dataset as OME-TIFF files into a directory. The files are named after
+   * the image id. Several images are exported concurrently, each using its own exporter service.
+   * Failing images do not stop the export of the remaining images.
    *
-   * @param imageId the image id of the image that provides the annotations
-   * @param fileFormat the format of the file annotation to be found
-   * @param fileExtension the extension of the file annotation's file name
-   * @return the annotation Id of the first annotation matching the file format, null if nothing
-   *         found
+   * @param datasetId the dataset whose images are exported
+   * @param targetDirectory the directory the files are written to, created if missing
+   * @param parallelism the maximal number of concurrent exports
+   * @param listener receives progress updates, may be null; exceptions it throws are ignored
+   * @return the written files and the failures by image id
+   * @since 1.3.0
    */
-  private Long findFileAnnotation(long imageId, String fileFormat, String fileExtension) {
-    List<FileAnnotationData> fileAnnotations = fetchFileAnnotationDataForImage(imageId);
-    for (FileAnnotationData annotationData : fileAnnotations) {
-      if (annotationData.getFileFormat() != null) {
-        if (annotationData.getFileFormat().equals(fileFormat)) {
-          return annotationData.getId();
-        }
-      }
-      if (annotationData.getFileName().endsWith(fileExtension)) {
-        return annotationData.getId();
-      }
+  public BulkExportResult<Path> exportDatasetOmeTiffs(long datasetId, Path targetDirectory,
+      int parallelism, ExportProgressListener listener) {
+    if (!this.isConnected()) {
+      connect();
     }
-    return null;
+    return exportOmeTiffs(findImageIds(Collections.singletonList(datasetId)), targetDirectory,
+        parallelism, listener);
   }
 
   /**
-   * Generate the ome.tiff file from a given image id
+   * Exports all images of all datasets of a project as OME-TIFF files into a directory.
    *
-   * @param imageId to define the image for which the ome.tiff should be generated
-   * @return the generate ome.tiff as a file
+   * @param projectId the project whose images are exported
+   * @param targetDirectory the directory the files are written to, created if missing
+   * @param parallelism the maximal number of concurrent exports
+   * @param listener receives progress updates, may be null; exceptions it throws are ignored
+   * @return the written files and the failures by image id
+   * @see #exportDatasetOmeTiffs(long, Path, int, ExportProgressListener)
+   * @since 1.3.0
    */
-  private File generateOmeTiff(long imageId) {
+  public BulkExportResult<Path> exportProjectOmeTiffs(long projectId, Path targetDirectory,
+      int parallelism, ExportProgressListener listener) {
     if (!this.isConnected()) {
       connect();
     }
-    final int BUFFER_SIZE = 1024 * 1024;
-
-    File generatedTiff = null;
+    return exportOmeTiffs(findImageIds(findDatasetIds(projectId)), targetDirectory, parallelism,
+        listener);
+  }
 
-    try {
-      generatedTiff = File.createTempFile("generated_" + imageId + "_", ".ome.tiff");
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Makes sure every image of a dataset has an OME-TIFF attachment. Missing OME-TIFFs are
+   * generated and attached concurrently.
+   *
+   * @param datasetId the dataset whose images are processed
+   * @param parallelism the maximal number of concurrent exports
+   * @param listener receives progress updates, may be null; exceptions it throws are ignored
+   * @return download links of the OME-TIFF attachments and the failures by image id
+   * @see #downloadOmeTiff(long)
+   * @since 1.3.0
+   */
+  public BulkExportResult<String> attachDatasetOmeTiffs(long datasetId, int parallelism,
+      ExportProgressListener listener) {
+    if (!this.isConnected()) {
+      connect();
     }
+    return runBulkExport(findImageIds(Collections.singletonList(datasetId)), parallelism,
+        listener, imageId -> getAnnotationFileDownloadLink(findOrAttachOmeTiff(imageId)));
+  }
 
-    try {
-      ExporterPrx exporterService = gateway.getExporterService(securityContext);
-      exporterService.addImage(imageId);
-      long fileLength = exporterService.generateTiff();
+  /**
+   * Makes sure every image of a project has an OME-TIFF attachment.
+   *
+   * @param projectId the project whose images are processed
+   * @param parallelism the maximal number of concurrent exports
+   * @param listener receives progress updates, may be null; exceptions it throws are ignored
+   * @return download links of the OME-TIFF attachments and the failures by image id
+   * @see #attachDatasetOmeTiffs(long, int, ExportProgressListener)
+   * @since 1.3.0
+   */
+  public BulkExportResult<String> attachProjectOmeTiffs(long projectId, int parallelism,
+      ExportProgressListener listener) {
+    if (!this.isConnected()) {
+      connect();
+    }
+    return runBulkExport(findImageIds(findDatasetIds(projectId)), parallelism, listener,
+        imageId -> getAnnotationFileDownloadLink(findOrAttachOmeTiff(imageId)));
+  }
 
-      FileOutputStream fileOutputStream = new FileOutputStream(generatedTiff);
+  /**
+   * Writes the metadata of all images of a project to a CSV file, one row per image. The images
+   * are read in pages of 500; the dimensions, channels, datasets and map annotations of a page are
+   * fetched with projection queries, without loading image objects. Several pages are fetched
+   * concurrently while the rows of earlier pages are written, so the memory use does not depend on
+   * the size of the project.
+   *
+   * The columns are image_id, image_name, dataset_ids, size_x, size_y, size_z, size_c, size_t,
+   * pixel_type and channel_names, followed by one column per map annotation key used on images of
+   * the project. Several datasets, channels or values of a key are separated by "; ".
+   *
+   * @param projectId the project whose images are exported
+   * @param target the CSV file, replaced once the export is complete
+   * @param parallelism the maximal number of pages fetched concurrently
+   * @param listener receives progress updates, may be null
+   * @return the number of rows written
+   * @since 1.3.0
+   */
+  public long exportProjectMetadata(long projectId, Path target, int parallelism,
+      ExportProgressListener listener) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
 
-      int bytesRead = 0;
-      while (bytesRead < fileLength) {
-        byte[] currentImageSlice = exporterService.read(bytesRead, BUFFER_SIZE);
-        fileOutputStream.write(currentImageSlice);
-        bytesRead += currentImageSlice.length;
+    SecurityContext context = contextForProject(projectId);
+    List<List<RType>> countRows = projection(context,
+        "select count(distinct dl.child.id) from" + PROJECT_IMAGE_LINKS,
+        projectParameters(projectId));
+    int total = countRows.isEmpty() ? 0 : (int) numberValue(countRows.get(0).get(0));
+
+    // the keys are known up front, so every key gets a column in the header
+    Map<String, Integer> keyColumns = new LinkedHashMap<>();
+    for (List<RType> row : projection(context, "select distinct nv.name"
+        + " from MapAnnotation m join m.mapValue nv, ImageAnnotationLink al," + PROJECT_IMAGE_LINKS
+        + " and al.child.id = m.id and al.parent.id = dl.child.id order by nv.name",
+        projectParameters(projectId))) {
+      String key = stringValue(row.get(0));
+      if (key != null) {
+        keyColumns.put(key, METADATA_COLUMNS.length + keyColumns.size());
       }
+    }
+    String[] header = Arrays.copyOf(METADATA_COLUMNS, METADATA_COLUMNS.length + keyColumns.size());
+    for (Map.Entry<String, Integer> keyColumn : keyColumns.entrySet()) {
+      header[keyColumn.getValue()] = keyColumn.getKey();
+    }
 
-      fileOutputStream.close();
-      exporterService.close();
-
-    } catch (ServerError | DSOutOfServiceException | FileNotFoundException exception) {
-      throw new RuntimeException("Omero could not create the ome tiff for image " + imageId,
-          exception);
+    MetadataCsvExport export =
+        new MetadataCsvExport(header, new MetadataCsvExport.RowSource() {
+          @Override
+          public List<Long> nextImageIds(long afterImageId, int limit) {
+            ParametersI parameters = projectParameters(projectId);
+            parameters.add("after", omero.rtypes.rlong(afterImageId));
+            parameters.page(0, limit);
+            List<Long> imageIds = new ArrayList<>(limit);
+            for (List<RType> row : projection(context, "select distinct dl.child.id"
+                + " from" + PROJECT_IMAGE_LINKS + " and dl.child.id > :after order by dl.child.id",
+                parameters)) {
+              imageIds.add(numberValue(row.get(0)));
+            }
+            return imageIds;
+          }
+
+          @Override
+          public List<String[]> fetchRows(List<Long> imageIds) {
+            return asFanOutWorker(() -> fetchMetadataRows(context, projectId, imageIds,
+                keyColumns, header.length));
+          }
+        }, METADATA_PAGE_SIZE);
+    try {
+      return export.writeTo(target, parallelism, total, listener);
     } catch (IOException ioException) {
-      throw new RuntimeException("Could not write ome.tiff to temporary file for image " + imageId,
-          ioException);
+      throw new RuntimeException(
+          "Could not write metadata of project " + projectId + " to " + target, ioException);
     }
-    return generatedTiff;
   }
 
-
   /**
-   * Attaches a FileAnnotation to the image containing the provided file. This methods also stores
-   * the file in the RawFileStore
+   * Fetches the metadata rows of a page of images with four projection queries
    *
-   * @param imageId the image an annotation is attached to
-   * @param file the file that will be contained in the annotation
-   * @return the annotation ID for the attached annotation
+   * @param context the security context of the project
+   * @param projectId the project of the images, only its datasets are listed
+   * @param imageIds the images of the page
+   * @param keyColumns the column of every map annotation key
+   * @param columnCount the number of columns
+   * @return one row per image in the order of the ids, null for images that no longer exist
    */
-  private long attachFileAnnotation(long imageId, File file) {
-
-    String fileName = file.getName();
-    String absolutePath = file.getAbsolutePath();
-    String folderPath = absolutePath.substring(0, absolutePath.length() - fileName.length());
-
-    final ChecksumAlgorithm checksumAlgorithm = new ChecksumAlgorithmI();
-    checksumAlgorithm.setValue(omero.rtypes.rstring(ChecksumAlgorithmSHA1160.value));
+  private List<String[]> fetchMetadataRows(SecurityContext context, long projectId,
+      List<Long> imageIds, Map<String, Integer> keyColumns, int columnCount) {
+    Map<Long, String[]> rows = new HashMap<>(imageIds.size() * 2);
+    for (List<RType> image : projection(context,
+        "select i.id, i.name, p.sizeX, p.sizeY, p.sizeZ, p.sizeC, p.sizeT, pt.value from Image i"
+            + " left outer join i.pixels p left outer join p.pixelsType pt where i.id in (:ids)",
+        new ParametersI().addIds(imageIds))) {
+      long imageId = numberValue(image.get(0));
+      if (rows.containsKey(imageId)) {
+        continue;
+      }
+      String[] row = new String[columnCount];
+      row[0] = String.valueOf(imageId);
+      row[1] = stringValue(image.get(1));
+      for (int column = 2; column <= 6; column++) {
+        if (image.get(column) != null) {
+          row[column + 1] = String.valueOf(numberValue(image.get(column)));
+        }
+      }
+      row[8] = stringValue(image.get(7));
+      rows.put(imageId, row);
+    }
 
-    OriginalFile originalFile = new OriginalFileI();
-    originalFile.setName(omero.rtypes.rstring(fileName));
-    originalFile.setPath(omero.rtypes.rstring(folderPath));
-    originalFile.setSize(omero.rtypes.rlong(file.length()));
-    originalFile.setHasher(checksumAlgorithm);
-    originalFile.setMimetype(omero.rtypes.rstring("OMETiff"));
+    for (List<RType> link : projection(context, "select dl.child.id, dl.parent.id"
+        + " from" + PROJECT_IMAGE_LINKS + " and dl.child.id in (:ids) order by dl.parent.id",
+        projectParameters(projectId).addIds(imageIds))) {
+      appendValue(rows.get(numberValue(link.get(0))), 2,
+          String.valueOf(numberValue(link.get(1))));
+    }
 
-    try {
-      DataManagerFacility dataManagerFacility = gateway.getFacility(DataManagerFacility.class);
-      originalFile =
-          (OriginalFile) dataManagerFacility.saveAndReturnObject(securityContext, originalFile);
+    for (List<RType> channel : projection(context, "select p.image.id, lc.name"
+        + " from Pixels p join p.channels c join c.logicalChannel lc"
+        + " where p.image.id in (:ids) order by p.image.id, index(c)",
+        new ParametersI().addIds(imageIds))) {
+      String name = stringValue(channel.get(1));
+      appendValue(rows.get(numberValue(channel.get(0))), 9, name != null ? name : "");
+    }
+
+    for (List<RType> pair : projection(context, "select al.parent.id, nv.name,"
+        + " nv.value from MapAnnotation m join m.mapValue nv, ImageAnnotationLink al"
+        + " where al.child.id = m.id and al.parent.id in (:ids) order by al.id, index(nv)",
+        new ParametersI().addIds(imageIds))) {
+      Integer column = keyColumns.get(stringValue(pair.get(1)));
+      // keys added after the header was written have no column
+      if (column != null) {
+        appendValue(rows.get(numberValue(pair.get(0))), column, stringValue(pair.get(2)));
+      }
+    }
+
+    List<String[]> orderedRows = new ArrayList<>(imageIds.size());
+    for (Long imageId : imageIds) {
+      orderedRows.add(rows.get(imageId));
+    }
+    return orderedRows;
+  }
+
+  /**
+   * @param projectId the omero identifier of a project
+   * @return parameters binding :project to the project
+   */
+  private static ParametersI projectParameters(long projectId) {
+    ParametersI parameters = new ParametersI();
+    parameters.add("project", omero.rtypes.rlong(projectId));
+    return parameters;
+  }
+
+  private List<List<RType>> projection(SecurityContext context, String query,
+      ParametersI parameters) {
+    return callServer(OperationClass.BROWSE, true,
+        gateway -> gateway.getQueryService(context).projection(query, parameters));
+  }
+
+  private static void appendValue(String[] row, int column, String value) {
+    if (row == null || value == null) {
+      return;
+    }
+    row[column] = row[column] == null ? value : row[column] + "; " + value;
+  }
+
+  /**
+   * @param value a string value of a projection
+   * @return the string, null for null values
+   */
+  private static String stringValue(RType value) {
+    return value instanceof RString ? ((RString) value).getValue() : null;
+  }
+
+  private BulkExportResult<Path> exportOmeTiffs(Collection<Long> imageIds, Path targetDirectory,
+      int parallelism, ExportProgressListener listener) {
+    try {
+      Files.createDirectories(targetDirectory);
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not create export directory " + targetDirectory,
+          ioException);
+    }
+    return runBulkExport(imageIds, parallelism, listener,
+        imageId -> exportOmeTiff(imageId, targetDirectory));
+  }
+
+  /**
+   * Writes the OME-TIFF of an image into a directory. A file from the OME-TIFF cache is copied,
+   * otherwise the exporter output is streamed to the directory without passing through the cache.
+   *
+   * @param imageId the image to be exported
+   * @param targetDirectory the directory the file is written to
+   * @return the written file
+   */
+  private Path exportOmeTiff(long imageId, Path targetDirectory) {
+    Path target = targetDirectory.resolve(imageId + OME_TIFF_EXTENSION);
+    try (OmeTiffCache.Entry cachedFile =
+        getOmeTiffCache().lookup(imageId, fetchImageVersion(imageId))) {
+      Path temporaryFile =
+          Files.createTempFile(targetDirectory, target.getFileName() + ".", ".part");
+      try {
+        if (cachedFile != null) {
+          try (InputStream input = cachedFile.newInputStream()) {
+            Files.copy(input, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+          }
+        } else {
+          writeOmeTiff(imageId, temporaryFile);
+        }
+        Files.move(temporaryFile, target, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(temporaryFile);
+      }
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not write ome.tiff for image " + imageId + " to " + target,
+          ioException);
+    }
+    return target;
+  }
+
+  /**
+   * Runs an export function for many images concurrently and collects the results. Progress is
+   * reported from the calling thread; exceptions thrown by the listener are ignored.
+   *
+   * @param imageIds the images to be exported
+   * @param parallelism the maximal number of concurrent exports
+   * @param listener receives progress updates, may be null
+   * @param export exports a single image
+   * @param <T> the type describing an exported image
+   * @return the exported images and failures
+   */
+  private <T> BulkExportResult<T> runBulkExport(Collection<Long> imageIds, int parallelism,
+      ExportProgressListener listener, Function<Long, T> export) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1.");
+    }
+
+    Map<Long, T> exported = new LinkedHashMap<>();
+    Map<Long, RuntimeException> failed = new LinkedHashMap<>();
+    if (imageIds.isEmpty()) {
+      return new BulkExportResult<>(exported, failed);
+    }
+
+    ExecutorService executor = Executors
+        .newFixedThreadPool(Math.min(parallelism, imageIds.size()), daemonThreads("omero-export"));
+    CompletionService<Map.Entry<Long, Object>> completionService =
+        new ExecutorCompletionService<>(executor);
+    try {
+      for (Long imageId : imageIds) {
+        completionService.submit(() -> {
+          try {
+            return new SimpleImmutableEntry<Long, Object>(imageId,
+                asFanOutWorker(() -> export.apply(imageId)));
+          } catch (RuntimeException exception) {
+            return new SimpleImmutableEntry<Long, Object>(imageId, exception);
+          }
+        });
+      }
+
+      int total = imageIds.size();
+      for (int completed = 1; completed <= total; completed++) {
+        Map.Entry<Long, Object> outcome = completionService.take().get();
+        long imageId = outcome.getKey();
+        if (outcome.getValue() instanceof RuntimeException) {
+          RuntimeException cause = (RuntimeException) outcome.getValue();
+          failed.put(imageId, cause);
+          if (listener != null) {
+            try {
+              listener.onImageFailed(imageId, cause, completed, total);
+            } catch (RuntimeException ignored) {
+              // a failing listener must neither stop the export nor lose its results
+            }
+          }
+        } else {
+          @SuppressWarnings("unchecked")
+          T result = (T) outcome.getValue();
+          exported.put(imageId, result);
+          if (listener != null) {
+            try {
+              listener.onImageExported(imageId, completed, total);
+            } catch (RuntimeException ignored) {
+              // a failing listener must neither stop the export nor lose its results
+            }
+          }
+        }
+      }
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Export was interrupted.", interruptedException);
+    } catch (ExecutionException executionException) {
+      throw new RuntimeException("Task aborted unexpectedly.", executionException);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return new BulkExportResult<>(exported, failed);
+  }
+
+  /**
+   * @param projectId the omero identifier of a project
+   * @return the identifiers of all datasets of the project
+   */
+  private List<Long> findDatasetIds(long projectId) {
+    Collection<ProjectData> projects = callServer(OperationClass.BROWSE, true, gateway -> {
+      BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
+      return browse.getProjects(contextForProject(projectId),
+          Collections.singletonList(projectId));
+    });
+    return projects.stream()
+        .flatMap(project -> project.getDatasets().stream())
+        .map(DatasetData::getId)
+        .distinct()
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * @param datasetIds omero identifiers of datasets
+   * @return the identifiers of all images of the datasets in ascending order
+   */
+  private List<Long> findImageIds(Collection<Long> datasetIds) {
+    if (datasetIds.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Collection<ImageData> images = callServer(OperationClass.BROWSE, true, gateway -> {
+      BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
+      return browse.getImagesForDatasets(allGroupsContext(), datasetIds);
+    });
+    return images.stream()
+        .map(ImageData::getId)
+        .distinct()
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * This method searches for file annotations with the given file format and uses file extension as
+   * a fallback
+   *
+   * @param imageId the image id of the image that provides the annotations
+   * @param fileFormat the format of the file annotation to be found
+   * @param fileExtension the extension of the file annotation's file name
+   * @return the annotation Id of the first annotation matching the file format, null if nothing
+   *         found
+   */
+  private Long findFileAnnotation(long imageId, String fileFormat, String fileExtension) {
+    List<FileAnnotationData> fileAnnotations = fetchFileAnnotationDataForImage(imageId);
+    for (FileAnnotationData annotationData : fileAnnotations) {
+      if (annotationData.getFileFormat() != null) {
+        if (annotationData.getFileFormat().equals(fileFormat)) {
+          return annotationData.getId();
+        }
+      }
+      if (annotationData.getFileName().endsWith(fileExtension)) {
+        return annotationData.getId();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Generate the ome.tiff file from a given image id. Generated files are kept in the
+   * {@link #setOmeTiffCache(Path, long) OME-TIFF cache}, so an unchanged image is only exported
+   * once.
+   *
+   * @param imageId to define the image for which the ome.tiff should be generated
+   * @return the generated ome.tiff, pinned in the cache until it is closed
+   */
+  private OmeTiffCache.Entry generateOmeTiff(long imageId) {
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    long imageVersion = fetchImageVersion(imageId);
+    try {
+      return getOmeTiffCache()
+          .getOrCreate(imageId, imageVersion, target -> writeOmeTiff(imageId, target));
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not write ome.tiff to temporary file for image " + imageId,
+          ioException);
+    }
+  }
+
+  /**
+   * Lets the OMERO exporter generate an ome.tiff for the given image and writes it to a file
+   *
+   * @param imageId to define the image for which the ome.tiff should be generated
+   * @param target the file the ome.tiff is written to
+   * @throws IOException if the file could not be written
+   */
+  private void writeOmeTiff(long imageId, Path target) throws IOException {
+    final int BUFFER_SIZE = 1024 * 1024;
+
+    ExporterPrx exporterService = null;
+    try (ConcurrencyLimiter.Permit permit = acquirePermit(OperationClass.EXPORT);
+        OutputStream fileOutputStream = Files.newOutputStream(target)) {
+      exporterService = gateway.getExporterService(contextForImage(imageId));
+      exporterService.addImage(imageId);
+      long fileLength = exporterService.generateTiff();
+
+      long bytesRead = 0;
+      while (bytesRead < fileLength) {
+        byte[] currentImageSlice = exporterService.read(bytesRead, BUFFER_SIZE);
+        if (currentImageSlice.length == 0) {
+          throw new IOException("Exporter returned no data at offset " + bytesRead + " of "
+              + fileLength + " for image " + imageId);
+        }
+        fileOutputStream.write(currentImageSlice);
+        bytesRead += currentImageSlice.length;
+      }
+      permit.close(true);
+    } catch (ServerError | DSOutOfServiceException exception) {
+      throw new RuntimeException("Omero could not create the ome tiff for image " + imageId,
+          exception);
+    } finally {
+      closeQuietly(exporterService);
+    }
+  }
+
+  /**
+   * Determines the version of an image. The version changes whenever the image or its pixels are
+   * updated on the server.
+   *
+   * @param imageId the omero identifier of the image
+   * @return the id of the most recent update event of the image and its pixels
+   */
+  private long fetchImageVersion(long imageId) {
+    ParametersI parameters = new ParametersI();
+    parameters.addId(imageId);
+    List<List<RType>> rows = projection(contextForImage(imageId),
+        "select i.details.updateEvent.id, p.details.updateEvent.id"
+            + " from Image i join i.pixels p where i.id = :id", parameters);
+
+    if (rows.isEmpty()) {
+      throw new IllegalArgumentException("Image " + imageId + " could not be found.");
+    }
+    long version = 0;
+    for (List<RType> row : rows) {
+      for (RType value : row) {
+        if (value instanceof RLong) {
+          version = Math.max(version, ((RLong) value).getValue());
+        }
+      }
+    }
+    return version;
+  }
+
+  /**
+   * Configures the local cache for generated OME-TIFF files. Files from an earlier cache in the
+   * same directory are reused. Clients of the same process that use the same directory share one
+   * cache, and the budget configured last applies to it. By default files are cached in the system
+   * temporary directory with a budget of {@value #DEFAULT_OME_TIFF_CACHE_BYTES} bytes.
+   *
+   * @param directory the directory the files are stored in
+   * @param maxBytes the total size of all cached files in bytes
+   * @since 1.3.0
+   */
+  public synchronized void setOmeTiffCache(Path directory, long maxBytes) {
+    this.omeTiffCache = OmeTiffCache.open(directory, maxBytes);
+  }
+
+  private synchronized OmeTiffCache getOmeTiffCache() {
+    if (this.omeTiffCache == null) {
+      this.omeTiffCache = OmeTiffCache.open(
+          Paths.get(System.getProperty("java.io.tmpdir"), "omero-client-lib", "ome-tiff-cache"),
+          DEFAULT_OME_TIFF_CACHE_BYTES);
+    }
+    return this.omeTiffCache;
+  }
+
+
+  /**
+   * Attaches a FileAnnotation to the image containing the provided file. This methods also stores
+   * the file in the RawFileStore
+   *
+   * @param imageId the image an annotation is attached to
+   * @param cacheEntry the cached file that will be contained in the annotation
+   * @return the annotation ID for the attached annotation
+   */
+  private long attachFileAnnotation(long imageId, OmeTiffCache.Entry cacheEntry) {
+
+    File file = cacheEntry.getFile().toFile();
+    String fileName = file.getName();
+    String absolutePath = file.getAbsolutePath();
+    String folderPath = absolutePath.substring(0, absolutePath.length() - fileName.length());
+
+    final ChecksumAlgorithm checksumAlgorithm = new ChecksumAlgorithmI();
+    checksumAlgorithm.setValue(omero.rtypes.rstring(ChecksumAlgorithmSHA1160.value));
+
+    OriginalFile originalFile = new OriginalFileI();
+    originalFile.setName(omero.rtypes.rstring(fileName));
+    originalFile.setPath(omero.rtypes.rstring(folderPath));
+    long fileSize;
+    try {
+      fileSize = cacheEntry.size();
+    } catch (IOException e) {
+      throw new RuntimeException("File operation failed.", e);
+    }
+    originalFile.setSize(omero.rtypes.rlong(fileSize));
+    originalFile.setHasher(checksumAlgorithm);
+    originalFile.setMimetype(omero.rtypes.rstring("OMETiff"));
+
+    SecurityContext context = contextForImage(imageId);
+    try (ConcurrencyLimiter.Permit permit = acquirePermit(OperationClass.UPLOAD)) {
+      DataManagerFacility dataManagerFacility = gateway.getFacility(DataManagerFacility.class);
+      originalFile =
+          (OriginalFile) dataManagerFacility.saveAndReturnObject(context, originalFile);
 
 
 
@@ -526,8 +1281,8 @@ public class BasicOMEROClient {
 
       byte[] bytes = new byte[BYTE_INCREMENT];
       ByteBuffer byteBuffer;
-      RawFileStorePrx rawFileStore = gateway.getRawFileService(securityContext);
-      try (FileInputStream fileInputStream = new FileInputStream(file)) {
+      RawFileStorePrx rawFileStore = gateway.getRawFileService(context);
+      try (InputStream fileInputStream = cacheEntry.newInputStream()) {
         rawFileStore.setFileId(originalFile.getId().getValue());
         while ((readLength = fileInputStream.read(bytes)) > 0) {
           rawFileStore.write(bytes, position, readLength);
@@ -547,31 +1302,34 @@ public class BasicOMEROClient {
           .setDescription(omero.rtypes.rstring("attached file annotation for image " + imageId));
 
       fileAnnotation =
-          (FileAnnotation) dataManagerFacility.saveAndReturnObject(securityContext, fileAnnotation);
+          (FileAnnotation) dataManagerFacility.saveAndReturnObject(context, fileAnnotation);
 
       BrowseFacility browseFacility = gateway.getFacility(BrowseFacility.class);
-      ImageData imageData = browseFacility.getImage(securityContext, imageId);
+      ImageData imageData = browseFacility.getImage(context, imageId);
+      imageFormats.put(imageId, imageData.getFormat());
 
       ImageAnnotationLink annotationLink = new ImageAnnotationLinkI();
       annotationLink.setChild(fileAnnotation);
       annotationLink.setParent(imageData.asImage());
       annotationLink = (ImageAnnotationLink) dataManagerFacility
-          .saveAndReturnObject(securityContext, annotationLink);
+          .saveAndReturnObject(context, annotationLink);
 
+      permit.close(true);
       return fileAnnotation.getId().getValue();
 
     } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
+      throw new RetryableOperationException(
           "Error while accessing omero service: broken connection, expired session or not logged in",
           dsOutOfServiceException);
     } catch (ExecutionException executionException) {
       throw new RuntimeException("Task aborted unexpectedly.", executionException);
     } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+      throw new NonRetryableOperationException("Could not pull data from the omero server.",
+          dsAccessException);
     } catch (IOException e) {
       throw new RuntimeException("File operation failed.", e);
     } catch (ServerError serverError) {
-      throw new RuntimeException("Omero store interaction failed.", serverError);
+      throw storeInteractionFailed(serverError);
     }
   }
 
@@ -592,94 +1350,456 @@ public class BasicOMEROClient {
         + serverId + "&bsession=" + sessionUuid;
   }
 
-  public HashMap<Long, String> loadProjects() {
+  /**
+   * Downloads the file of a file annotation directly from the OMERO raw file store. The file is
+   * read in parallel byte ranges, each range over its own raw file store session, and written to
+   * the target with positional writes. If the original file has a SHA1 hash, the download is
+   * verified against it.
+   *
+   * An interrupted download leaves a partial file next to the target. Calling this method again
+   * with the same target only transfers the missing ranges.
+   *
+   * @param annotationId the omero identifier of the file annotation
+   * @param target the path the file is written to, an existing file is replaced
+   * @param parallelism the maximal number of concurrent raw file store sessions
+   * @return the target path
+   * @since 1.3.0
+   */
+  public Path downloadAnnotationFile(long annotationId, Path target, int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1.");
+    }
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
       connect();
     }
 
-    this.projectMap = new HashMap<Long, String>();
-    this.datasetMap = new HashMap<Long, Set<DatasetData>>();
+    SecurityContext allGroups = allGroupsContext();
+    ParametersI parameters = new ParametersI();
+    parameters.addId(annotationId);
+    OriginalFile originalFile = callServer(OperationClass.BROWSE, true,
+        gateway -> (OriginalFile) gateway.getQueryService(allGroups).findByQuery(
+            "select f from FileAnnotation a join a.file f left outer join fetch f.hasher"
+                + " where a.id = :id", parameters));
+    if (originalFile == null) {
+      throw new IllegalArgumentException(
+          "No file found for file annotation " + annotationId + ".");
+    }
+
+    String expectedSha1 = null;
+    if (originalFile.getHasher() != null && originalFile.getHasher().getValue() != null
+        && ChecksumAlgorithmSHA1160.value.equals(originalFile.getHasher().getValue().getValue())
+        && originalFile.getHash() != null) {
+      expectedSha1 = originalFile.getHash().getValue();
+    }
 
+    long fileId = originalFile.getId().getValue();
+    // raw file store sessions are bound to the group of the file
+    SecurityContext context =
+        contextForGroup(originalFile.getDetails().getGroup().getId().getValue());
+    RangedFileDownload download = new RangedFileDownload(fileId,
+        originalFile.getSize().getValue(), expectedSha1, target);
     try {
+      // every session takes its own permit
+      download.run(parallelism, () -> acquireFanOutPermit(OperationClass.EXPORT), () -> {
+        try {
+          return gateway.getRawFileService(context);
+        } catch (DSOutOfServiceException dsOutOfServiceException) {
+          throw new RetryableOperationException(
+              "Error while accessing omero service: broken connection, expired session or not logged in",
+              dsOutOfServiceException);
+        }
+      });
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not download file of annotation " + annotationId + ".",
+          ioException);
+    }
+    return target;
+  }
+
+  public HashMap<Long, String> loadProjects() {
+    refreshProjects();
+    return this.projectMap;
+  }
+
+  /**
+   * Loads the projects of the default group, like {@link #loadProjects()}, and returns them as
+   * compact typed records
+   *
+   * @return name and description of the projects by project id
+   * @see #loadProjectSummariesInAllGroups()
+   * @since 1.3.0
+   */
+  public LongKeyedMap<ProjectSummary> loadProjectSummaries() {
+    return toProjectSummaries(refreshProjects());
+  }
+
+  /**
+   * Loads the projects of the default group and replaces the cached projects and datasets
+   *
+   * @return the loaded projects
+   */
+  private Collection<ProjectData> refreshProjects() {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
 
+    Collection<ProjectData> projects = callServer(OperationClass.BROWSE, true, gateway -> {
       BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
-      Collection<ProjectData> projects = browse.getProjects(securityContext);
+      return browse.getProjects(securityContext);
+    });
 
-      Iterator<ProjectData> i = projects.iterator();
-      ProjectData project;
-      while (i.hasNext()) {
-        project = i.next();
+    HashMap<Long, String> projectNames = new HashMap<Long, String>();
+    HashMap<Long, Set<DatasetData>> projectDatasets = new HashMap<Long, Set<DatasetData>>();
 
-        String name = project.getName();
-        long id = project.getId();
+    Iterator<ProjectData> i = projects.iterator();
+    ProjectData project;
+    while (i.hasNext()) {
+      project = i.next();
 
-        this.projectMap.put(id, name);
-        this.datasetMap.put(id, project.getDatasets());
-      }
+      String name = project.getName();
+      long id = project.getId();
 
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+      projectNames.put(id, name);
+      projectDatasets.put(id, project.getDatasets());
+    }
+
+    this.projectMap = projectNames;
+    this.datasetMap = projectDatasets;
+    return projects;
+  }
+
+  private static LongKeyedMap<ProjectSummary> toProjectSummaries(
+      Collection<ProjectData> projects) {
+    LongKeyedMap.Builder<ProjectSummary> summaries = new LongKeyedMap.Builder<>(projects.size());
+    for (ProjectData project : projects) {
+      summaries.put(project.getId(),
+          new ProjectSummary(project.getId(), project.getName(), project.getDescription()));
     }
+    return summaries.build();
+  }
 
+  /**
+   * Loads the projects of all groups the user is a member of. The groups are queried concurrently
+   * and the results are merged. Datasets of the returned projects can be listed with
+   * {@link #getDatasets(long)}, and their images are looked up in the group they belong to.
+   *
+   * @return the names of all accessible projects by project id
+   * @see #loadProjects()
+   * @since 1.3.0
+   */
+  public HashMap<Long, String> loadProjectsInAllGroups() {
+    refreshProjectsInAllGroups();
     return this.projectMap;
   }
 
-  public HashMap<String, String> getProjectInfo(long projectId) {
+  /**
+   * Loads the projects of all groups the user is a member of, like
+   * {@link #loadProjectsInAllGroups()}, and returns them as compact typed records.
+   *
+   * @return name and description of all accessible projects by project id
+   * @see #loadProjectSummaries()
+   * @since 1.3.0
+   */
+  public LongKeyedMap<ProjectSummary> loadProjectSummariesInAllGroups() {
+    return toProjectSummaries(refreshProjectsInAllGroups());
+  }
+
+  /**
+   * Loads the projects of all groups and replaces the cached projects, datasets and groups
+   *
+   * @return the loaded projects
+   */
+  private List<ProjectData> refreshProjectsInAllGroups() {
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
       connect();
     }
 
-    HashMap<String, String> projectInfo = new HashMap<String, String>();
-
-    try {
-
+    Map<Long, Collection<ProjectData>> projectsByGroup = queryAllGroups((gateway, context) -> {
       BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
-      Collection<ProjectData> projects = browse.getProjects(securityContext);
-
-      Iterator<ProjectData> i = projects.iterator();
-      ProjectData project;
-      while (i.hasNext()) {
-        project = i.next();
-
-        if (project.getId() == projectId) {
-
-          projectInfo.put("name", project.getName());
-          projectInfo.put("desc", project.getDescription());
-
-          break;
+      return browse.getProjects(context);
+    });
+
+    List<ProjectData> loadedProjects = new ArrayList<>();
+    HashMap<Long, String> projects = new HashMap<Long, String>();
+    HashMap<Long, Set<DatasetData>> datasets = new HashMap<Long, Set<DatasetData>>();
+    for (Map.Entry<Long, Collection<ProjectData>> groupProjects : projectsByGroup.entrySet()) {
+      long groupId = groupProjects.getKey();
+      for (ProjectData project : groupProjects.getValue()) {
+        loadedProjects.add(project);
+        projects.put(project.getId(), project.getName());
+        datasets.put(project.getId(), project.getDatasets());
+        projectGroups.put(project.getId(), groupId);
+        for (DatasetData dataset : project.getDatasets()) {
+          datasetGroups.put(dataset.getId(), groupId);
         }
       }
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
     }
 
-    return projectInfo;
+    this.projectMap = projects;
+    this.datasetMap = datasets;
+    return loadedProjects;
   }
 
-  public HashMap<Long, HashMap<String, String>> getDatasets(long projectId) {
-    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+  /**
+   * Returns the ids of all groups the connected user is a member of, starting with the default
+   * group. The system wide user and guest groups are left out.
+   *
+   * @return the group ids of the connected user
+   * @since 1.3.0
+   */
+  public List<Long> getGroupIds() {
     if (!this.isConnected()) {
       connect();
     }
+    return this.groupIds;
+  }
 
-    HashMap<Long, HashMap<String, String>> datasetList =
-        new HashMap<Long, HashMap<String, String>>();
-
-    Set<DatasetData> datasets = this.datasetMap.get(projectId);
+  /**
+   * @param groupId the omero identifier of a group
+   * @return the cached security context for the group
+   */
+  private SecurityContext contextForGroup(long groupId) {
+    return groupContexts.computeIfAbsent(groupId, SecurityContext::new);
+  }
+
+  /**
+   * @param projectId the omero identifier of a project
+   * @return the security context of the project's group if known, the default context otherwise
+   */
+  private SecurityContext contextForProject(long projectId) {
+    Long groupId = projectGroups.get(projectId);
+    return groupId != null ? contextForGroup(groupId) : securityContext;
+  }
+
+  /**
+   * @param datasetId the omero identifier of a dataset
+   * @return the security context of the dataset's group if known, the default context otherwise
+   */
+  private SecurityContext contextForDataset(long datasetId) {
+    Long groupId = datasetGroups.get(datasetId);
+    return groupId != null ? contextForGroup(groupId) : securityContext;
+  }
+
+  /**
+   * Images listed through this client are routed to their group right away. Other images are
+   * looked up in all groups once and remembered.
+   *
+   * @param imageId the omero identifier of an image
+   * @return the security context of the image's group, the default context if the image is not
+   *         found
+   */
+  private SecurityContext contextForImage(long imageId) {
+    Long groupId = imageGroups.get(imageId);
+    if (groupId == null) {
+      ParametersI parameters = new ParametersI();
+      parameters.addId(imageId);
+      List<List<RType>> rows = callServer(OperationClass.BROWSE, true,
+          gateway -> gateway.getQueryService(allGroupsContext()).projection(
+              "select i.details.group.id from Image i where i.id = :id", parameters));
+      if (rows.isEmpty()) {
+        return securityContext;
+      }
+      groupId = numberValue(rows.get(0).get(0));
+      imageGroups.put(imageId, groupId);
+    }
+    return contextForGroup(groupId);
+  }
+
+  /**
+   * @return a security context that reads from all groups of the user. Writes and stateful services
+   *         need the context of the object's group.
+   */
+  private SecurityContext allGroupsContext() {
+    return contextForGroup(ALL_GROUPS);
+  }
+
+  /**
+   * A query executed in the context of a single group. The gateway is passed in since the query
+   * may be hedged over the second session.
+   *
+   * @param <T> the result type of the query
+   */
+  private interface GroupQuery<T> {
+
+    T query(Gateway gateway, SecurityContext context)
+        throws DSOutOfServiceException, DSAccessException, ExecutionException, ServerError;
+  }
+
+  /**
+   * Runs a query in all groups of the user concurrently. The query of every group is a single call
+   * with the configured deadline, hedged like other reads, and the caller waits no longer than the
+   * deadline.
+   *
+   * @param query the query to be run per group
+   * @param <T> the result type of the query
+   * @return the query results by group id
+   */
+  private <T> Map<Long, T> queryAllGroups(GroupQuery<T> query) {
+    long timeoutNanos = this.callTimeoutNanos;
+    long deadlineNanos = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0L;
+    return runInAllGroups(context -> callServer(OperationClass.BROWSE, true,
+        gateway -> query.query(gateway, context)), deadlineNanos);
+  }
+
+  /**
+   * Scans all groups of the user concurrently. A scan makes any number of calls, each of which has
+   * the configured deadline, so the scan as a whole has none.
+   *
+   * @param scan the scan to be run per group
+   */
+  private void scanAllGroups(Consumer<SecurityContext> scan) {
+    runInAllGroups(context -> {
+      scan.accept(context);
+      return null;
+    }, 0L);
+  }
+
+  /**
+   * Runs a task per group on the group executor. The tasks are fan-out workers, so their calls
+   * wait for concurrency slots instead of being rejected.
+   *
+   * @param task the task to be run per group
+   * @param deadlineNanos the time the caller waits for the results until in
+   *        {@link System#nanoTime()} units, 0 to wait indefinitely
+   * @param <T> the result type of the task
+   * @return the task results by group id
+   */
+  private <T> Map<Long, T> runInAllGroups(Function<SecurityContext, T> task, long deadlineNanos) {
+    List<Long> groups = getGroupIds();
+    ExecutorService executor = groupExecutor();
+    Map<Long, Future<T>> futures = new LinkedHashMap<>();
+    try {
+      for (Long groupId : groups) {
+        futures.put(groupId, executor.submit(
+            () -> asFanOutWorker(() -> task.apply(contextForGroup(groupId)))));
+      }
+      Map<Long, T> results = new LinkedHashMap<>();
+      for (Map.Entry<Long, Future<T>> future : futures.entrySet()) {
+        results.put(future.getKey(), deadlineNanos == 0 ? future.getValue().get()
+            : future.getValue().get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS));
+      }
+      return results;
+    } catch (TimeoutException timeoutException) {
+      throw new OperationTimeoutException(
+          "Omero " + OperationClass.BROWSE + " calls in all groups did not complete in time.",
+          OperationClass.BROWSE);
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Group query was interrupted.", interruptedException);
+    } catch (ExecutionException executionException) {
+      Throwable cause = executionException.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException("Task aborted unexpectedly.", cause);
+    } finally {
+      // tasks of other groups that did not start yet are not needed anymore
+      for (Future<T> future : futures.values()) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * @return the executor of watched calls, created when first needed after a connect
+   */
+  private ExecutorService callExecutor() {
+    synchronized (executorLock) {
+      if (callExecutor == null) {
+        callExecutor = daemonThreadPool(MAX_CALL_THREADS, "omero-call");
+      }
+      return callExecutor;
+    }
+  }
+
+  /**
+   * @return the executor of the per-group tasks, created when first needed after a connect
+   */
+  private ExecutorService groupExecutor() {
+    synchronized (executorLock) {
+      if (groupExecutor == null) {
+        groupExecutor = daemonThreadPool(MAX_GROUP_PARALLELISM, "omero-group");
+      }
+      return groupExecutor;
+    }
+  }
+
+  /**
+   * Creates a pool of at most the given number of daemon threads. Idle threads end after a minute
+   * and tasks beyond the number of threads wait in the queue.
+   */
+  private static ExecutorService daemonThreadPool(int threads, String name) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1L, TimeUnit.MINUTES,
+        new LinkedBlockingQueue<>(), daemonThreads(name));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Runs a task of one of the client's own fan-outs on the current thread, so that its calls wait
+   * for concurrency slots instead of being rejected
+   */
+  private static <T> T asFanOutWorker(Supplier<T> task) {
+    boolean fanOutWorker = FAN_OUT_WORKER.get();
+    FAN_OUT_WORKER.set(true);
+    try {
+      return task.get();
+    } finally {
+      FAN_OUT_WORKER.set(fanOutWorker);
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    return runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  public HashMap<String, String> getProjectInfo(long projectId) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    HashMap<String, String> projectInfo = new HashMap<String, String>();
+
+    Collection<ProjectData> projects = callServer(OperationClass.BROWSE, true, gateway -> {
+      BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
+      return browse.getProjects(contextForProject(projectId));
+    });
+
+    Iterator<ProjectData> i = projects.iterator();
+    ProjectData project;
+    while (i.hasNext()) {
+      project = i.next();
+
+      if (project.getId() == projectId) {
+
+        projectInfo.put("name", project.getName());
+        projectInfo.put("desc", project.getDescription());
+
+        break;
+      }
+    }
+
+    return projectInfo;
+  }
+
+  public HashMap<Long, HashMap<String, String>> getDatasets(long projectId) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    HashMap<Long, HashMap<String, String>> datasetList =
+        new HashMap<Long, HashMap<String, String>>();
+
+    Set<DatasetData> datasets = this.datasetMap.get(projectId);
 
     Iterator<DatasetData> iterator = datasets.iterator();
     DatasetData dataset;
@@ -698,6 +1818,126 @@ public class BasicOMEROClient {
 
   }
 
+  /**
+   * Returns the datasets of a project loaded before as compact typed records. If no projects were
+   * loaded yet, the projects of the default group are loaded first.
+   *
+   * @param projectId the omero identifier of the project
+   * @return name and description of the project's datasets by dataset id, empty if the project is
+   *         not loaded
+   * @see #getDatasets(long)
+   * @since 1.3.0
+   */
+  public LongKeyedMap<DatasetSummary> getDatasetSummaries(long projectId) {
+    if (this.datasetMap == null) {
+      refreshProjects();
+    }
+    Set<DatasetData> datasets = this.datasetMap.get(projectId);
+    if (datasets == null) {
+      return LongKeyedMap.empty();
+    }
+    LongKeyedMap.Builder<DatasetSummary> summaries = new LongKeyedMap.Builder<>(datasets.size());
+    for (DatasetData dataset : datasets) {
+      summaries.put(dataset.getId(),
+          new DatasetSummary(dataset.getId(), dataset.getName(), dataset.getDescription()));
+    }
+    return summaries.build();
+  }
+
+  /**
+   * Computes image counts, pixel volume and channel counts of many datasets with aggregate queries
+   * on the server. No image is loaded; every group is asked once per 1000 datasets.
+   *
+   * @param datasetIds the omero identifiers of the datasets
+   * @return the statistics by dataset id. Datasets without images, and datasets that are not
+   *         accessible, have zero counts.
+   * @since 1.3.0
+   */
+  public LongKeyedMap<ContainerStatistics> getDatasetStatistics(Collection<Long> datasetIds) {
+    return aggregateImageStatistics(datasetIds, "select l.parent.id, " + IMAGE_AGGREGATES
+        + " from DatasetImageLink l join l.child i join i.pixels p"
+        + " where l.parent.id in (:ids) group by l.parent.id");
+  }
+
+  /**
+   * Computes image counts, pixel volume and channel counts of many projects with aggregate queries
+   * on the server. An image contained in several datasets of a project counts once. No image is
+   * loaded; every group is asked once per 1000 projects.
+   *
+   * @param projectIds the omero identifiers of the projects
+   * @return the statistics by project id. Projects without images, and projects that are not
+   *         accessible, have zero counts.
+   * @since 1.3.0
+   */
+  public LongKeyedMap<ContainerStatistics> getProjectStatistics(Collection<Long> projectIds) {
+    return aggregateImageStatistics(projectIds, "select pr.id, " + IMAGE_AGGREGATES
+        + " from Image i join i.pixels p, Project pr where pr.id in (:ids) and exists"
+        + " (select dl.id from DatasetImageLink dl, ProjectDatasetLink pl"
+        + " where dl.child.id = i.id and pl.child.id = dl.parent.id and pl.parent.id = pr.id)"
+        + " group by pr.id");
+  }
+
+  /**
+   * Runs an aggregate query in all groups for batches of container ids
+   *
+   * @param containerIds the omero identifiers of the datasets or projects
+   * @param query selects the container id followed by the {@link #IMAGE_AGGREGATES} of the
+   *        containers in :ids
+   * @return the statistics by container id, zero counts for containers without result
+   */
+  private LongKeyedMap<ContainerStatistics> aggregateImageStatistics(
+      Collection<Long> containerIds, String query) {
+    final int BATCH_SIZE = 1000;
+
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    List<Long> ids = new ArrayList<>(new HashSet<>(containerIds));
+    LongKeyedMap.Builder<ContainerStatistics> statistics = new LongKeyedMap.Builder<>(ids.size());
+    for (Long id : ids) {
+      statistics.put(id, new ContainerStatistics(id, 0, 0, 0, 0));
+    }
+    if (ids.isEmpty()) {
+      return statistics.build();
+    }
+
+    Map<Long, List<List<RType>>> rowsByGroup = queryAllGroups((gateway, context) -> {
+      IQueryPrx queryService = gateway.getQueryService(context);
+      List<List<RType>> rows = new ArrayList<>();
+      for (int start = 0; start < ids.size(); start += BATCH_SIZE) {
+        ParametersI parameters = new ParametersI();
+        parameters.addIds(ids.subList(start, Math.min(start + BATCH_SIZE, ids.size())));
+        rows.addAll(queryService.projection(query, parameters));
+      }
+      return rows;
+    });
+
+    // a container belongs to a single group, so every container has at most one row
+    for (List<List<RType>> rows : rowsByGroup.values()) {
+      for (List<RType> row : rows) {
+        long id = numberValue(row.get(0));
+        statistics.put(id, new ContainerStatistics(id, numberValue(row.get(1)),
+            numberValue(row.get(2)), numberValue(row.get(3)), (int) numberValue(row.get(4))));
+      }
+    }
+    return statistics.build();
+  }
+
+  /**
+   * @param value a numeric value of a projection, null for aggregates over no rows
+   * @return the value as long, 0 for null
+   */
+  private static long numberValue(RType value) {
+    if (value instanceof RLong) {
+      return ((RLong) value).getValue();
+    } else if (value instanceof RInt) {
+      return ((RInt) value).getValue();
+    }
+    return 0L;
+  }
+
   public long createProject(String name, String desc) {
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
@@ -715,16 +1955,8 @@ public class BasicOMEROClient {
     proj.setName(omero.rtypes.rstring(name));
     proj.setDescription(omero.rtypes.rstring(desc));
 
-    IObject r;
-    try {
-      r = dm.saveAndReturnObject(this.securityContext, proj);
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
-    }
+    IObject r = callServer(OperationClass.UPLOAD, false,
+        gateway -> dm.saveAndReturnObject(this.securityContext, proj));
 
     return r.getId().getValue();
 
@@ -736,7 +1968,7 @@ public class BasicOMEROClient {
       connect();
     }
 
-    DataManagerFacility dm = null;
+    DataManagerFacility dm;
     try {
       dm = gateway.getFacility(DataManagerFacility.class);
     } catch (ExecutionException executionException) {
@@ -750,19 +1982,17 @@ public class BasicOMEROClient {
     link.setChild(dataset);
     link.setParent(new ProjectI(projectId, false));
 
-    IObject r = null;
-    try {
-      r = dm.saveAndReturnObject(this.securityContext, link);
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
-    }
+    SecurityContext context = contextForProject(projectId);
+    IObject r = callServer(OperationClass.UPLOAD, false,
+        gateway -> dm.saveAndReturnObject(context, link));
 
     ProjectDatasetLink remote_link = (ProjectDatasetLink) r;
-    return remote_link.getChild().getId().getValue();
+    long datasetId = remote_link.getChild().getId().getValue();
+    Long groupId = projectGroups.get(projectId);
+    if (groupId != null) {
+      datasetGroups.put(datasetId, groupId);
+    }
+    return datasetId;
 
 
   }
@@ -783,18 +2013,12 @@ public class BasicOMEROClient {
     // in the webclient and insight
     data.setNameSpace(MapAnnotationData.NS_CLIENT_CREATED);
 
-    try {
+    callServer(OperationClass.UPLOAD, false, gateway -> {
       DataManagerFacility fac = gateway.getFacility(DataManagerFacility.class);
-      fac.attachAnnotation(securityContext, data, new ProjectData(new ProjectI(projectId, false)));
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
-    }
+      return fac.attachAnnotation(contextForProject(projectId), data,
+          new ProjectData(new ProjectI(projectId, false)));
+    });
+    indexMapAnnotation(MapAnnotationIndex.ObjectType.PROJECT, projectId, key, value);
 
   }
 
@@ -811,114 +2035,287 @@ public class BasicOMEROClient {
     data.setContent(result);
 
     data.setNameSpace(MapAnnotationData.NS_CLIENT_CREATED);
-    try {
+    callServer(OperationClass.UPLOAD, false, gateway -> {
       DataManagerFacility fac = gateway.getFacility(DataManagerFacility.class);
-      fac.attachAnnotation(securityContext, data, new DatasetData(new DatasetI(datasetId, false)));
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
-    }
+      return fac.attachAnnotation(contextForDataset(datasetId), data,
+          new DatasetData(new DatasetI(datasetId, false)));
+    });
+    indexMapAnnotation(MapAnnotationIndex.ObjectType.DATASET, datasetId, key, value);
   }
 
-  public HashMap<Long, String> getImages(long datasetId) {
+  /**
+   * Builds a local index over the key value pairs of all map annotations of projects, datasets and
+   * images in all groups of the user. The annotations are read in pages with one query per object
+   * type and group; the groups are scanned concurrently. The index becomes the client's current
+   * index and is updated whenever map annotations are added through this client.
+   *
+   * @return the new index
+   * @see MapAnnotationIndex
+   * @since 1.3.0
+   */
+  public MapAnnotationIndex buildMapAnnotationIndex() {
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
       connect();
     }
 
-    HashMap<Long, String> imageList = new HashMap<Long, String>();
+    MapAnnotationIndex index = new MapAnnotationIndex();
+    scanAllGroups(context -> {
+      scanMapAnnotations(context, "ProjectAnnotationLink", MapAnnotationIndex.ObjectType.PROJECT,
+          null, index);
+      scanMapAnnotations(context, "DatasetAnnotationLink", MapAnnotationIndex.ObjectType.DATASET,
+          null, index);
+      scanMapAnnotations(context, "ImageAnnotationLink", MapAnnotationIndex.ObjectType.IMAGE,
+          null, index);
+    });
+
+    this.mapAnnotationIndex = index;
+    return index;
+  }
 
-    try {
-      BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
-      Collection<ImageData> images =
-          browse.getImagesForDatasets(securityContext, Arrays.asList(datasetId));
+  /**
+   * Adds the map annotations linked to one kind of object to an index. Links are read in pages, and
+   * the annotations of a page are loaded with a single query. Every query is a call of its own.
+   *
+   * @param context the security context of the scanned group
+   * @param linkType the annotation link class of the object type, e.g. ImageAnnotationLink
+   * @param objectType the index type of the annotated objects
+   * @param objectIds the annotated objects to be scanned, null to scan all objects
+   * @param index the index the pairs are added to
+   */
+  private void scanMapAnnotations(SecurityContext context, String linkType,
+      MapAnnotationIndex.ObjectType objectType, Collection<Long> objectIds,
+      MapAnnotationIndex index) {
+    final int PAGE_SIZE = 1000;
+
+    String linkQuery = "select l.parent.id, l.child.id from " + linkType + " l"
+        + " where l.child.class = MapAnnotation"
+        + (objectIds != null ? " and l.parent.id in (:objectIds)" : "") + " order by l.id";
+    int offset = 0;
+    List<List<RType>> links;
+    do {
+      ParametersI linkParameters = new ParametersI();
+      linkParameters.page(offset, PAGE_SIZE);
+      if (objectIds != null) {
+        List<RType> ids = new ArrayList<>();
+        for (Long objectId : objectIds) {
+          ids.add(omero.rtypes.rlong(objectId));
+        }
+        linkParameters.add("objectIds", omero.rtypes.rlist(ids));
+      }
+      links = projection(context, linkQuery, linkParameters);
+      if (links.isEmpty()) {
+        break;
+      }
 
-      Iterator<ImageData> j = images.iterator();
-      ImageData image;
-      while (j.hasNext()) {
-        image = j.next();
-        imageList.put(image.getId(), image.getName());
+      List<Long> annotationIds = new ArrayList<>();
+      for (List<RType> link : links) {
+        annotationIds.add(((RLong) link.get(1)).getValue());
+      }
+      ParametersI annotationParameters = new ParametersI();
+      annotationParameters.addIds(annotationIds);
+      Map<Long, List<NamedValue>> pairsByAnnotation = new HashMap<>();
+      List<IObject> annotations = callServer(OperationClass.BROWSE, true,
+          gateway -> gateway.getQueryService(context).findAllByQuery("select distinct m"
+              + " from MapAnnotation m left outer join fetch m.mapValue where m.id in (:ids)",
+              annotationParameters));
+      for (IObject annotation : annotations) {
+        List<NamedValue> pairs = ((MapAnnotation) annotation).getMapValue();
+        if (pairs != null) {
+          pairsByAnnotation.put(annotation.getId().getValue(), pairs);
+        }
       }
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
-    }
 
-    return imageList;
+      for (List<RType> link : links) {
+        long objectId = ((RLong) link.get(0)).getValue();
+        List<NamedValue> pairs = pairsByAnnotation.get(((RLong) link.get(1)).getValue());
+        if (pairs != null) {
+          for (NamedValue pair : pairs) {
+            index.add(objectType, objectId, pair.name, pair.value);
+          }
+        }
+      }
+      offset += PAGE_SIZE;
+    } while (links.size() == PAGE_SIZE);
   }
 
-  public HashMap<String, String> getImageInfo(long datasetId, long imageId) {
+  /**
+   * Replaces the client's map annotation index, e.g. with an index loaded from disk. The index is
+   * updated whenever map annotations are added through this client.
+   *
+   * @param index the new index, null to stop indexing
+   * @since 1.3.0
+   */
+  public void setMapAnnotationIndex(MapAnnotationIndex index) {
+    this.mapAnnotationIndex = index;
+  }
+
+  /**
+   * @return the client's map annotation index, null if none was built or set
+   * @since 1.3.0
+   */
+  public MapAnnotationIndex getMapAnnotationIndex() {
+    return this.mapAnnotationIndex;
+  }
+
+  private void indexMapAnnotation(MapAnnotationIndex.ObjectType type, long objectId, String key,
+      String value) {
+    MapAnnotationIndex index = this.mapAnnotationIndex;
+    if (index != null) {
+      index.add(type, objectId, key, value);
+    }
+  }
+
+  public HashMap<Long, String> getImages(long datasetId) {
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
       connect();
     }
 
-    HashMap<String, String> imageInfo = new HashMap<String, String>();
+    HashMap<Long, String> imageList = new HashMap<Long, String>();
 
-    try {
+    SecurityContext context = contextForDataset(datasetId);
+    Collection<ImageData> images = listImages(context, datasetId);
 
-      BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
-      Collection<ImageData> images =
-          browse.getImagesForDatasets(this.securityContext, Arrays.asList(datasetId));
+    Iterator<ImageData> j = images.iterator();
+    ImageData image;
+    while (j.hasNext()) {
+      image = j.next();
+      imageList.put(image.getId(), image.getName());
+    }
 
-      Iterator<ImageData> j = images.iterator();
-      ImageData image = null;
-      while (j.hasNext()) {
-        image = j.next();
-        if (image.getId() == imageId) {
-          break;
-        }
-      }
+    ImagePrefetcher currentPrefetcher = this.prefetcher;
+    if (currentPrefetcher != null) {
+      schedulePrefetch(currentPrefetcher, context, images);
+    }
 
-      if (image != null) {
+    return imageList;
+  }
 
-        imageInfo.put("name", image.getName());
-        imageInfo.put("desc", image.getDescription());
+  /**
+   * @param context the security context of the dataset's group
+   * @param datasetId the omero identifier of the dataset
+   * @return the images of the dataset
+   */
+  private Collection<ImageData> listImages(SecurityContext context, long datasetId) {
+    Collection<ImageData> images = callServer(OperationClass.BROWSE, true, gateway -> {
+      BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
+      return browse.getImagesForDatasets(context, Collections.singletonList(datasetId));
+    });
+    // images are listed in the group of their dataset
+    for (ImageData image : images) {
+      imageGroups.put(image.getId(), context.getGroupID());
+    }
+    return images;
+  }
 
-        PixelsData pixels = image.getDefaultPixels();
-        int sizeZ = pixels.getSizeZ(); // The number of z-sections.
-        int sizeT = pixels.getSizeT(); // The number of timepoints.
-        int sizeC = pixels.getSizeC(); // The number of channels.
-        int sizeX = pixels.getSizeX(); // The number of pixels along the X-axis.
-        int sizeY = pixels.getSizeY(); // The number of pixels along the Y-axis.
+  /**
+   * Returns the images of a dataset as compact typed records including their pixel dimensions,
+   * which {@link #getImages(long)} leaves out
+   *
+   * @param datasetId the omero identifier of the dataset
+   * @return name, description and dimensions of the dataset's images by image id
+   * @since 1.3.0
+   */
+  public LongKeyedMap<ImageSummary> getImageSummaries(long datasetId) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
 
-        imageInfo.put("size",
-            String.valueOf(sizeX) + " x " + String.valueOf(sizeY) + " x " + String.valueOf(sizeZ));
-        imageInfo.put("tps", String.valueOf(sizeT));
+    SecurityContext context = contextForDataset(datasetId);
+    Collection<ImageData> images = listImages(context, datasetId);
 
-        MetadataFacility mdf = gateway.getFacility(MetadataFacility.class);
+    LongKeyedMap.Builder<ImageSummary> summaries = new LongKeyedMap.Builder<>(images.size());
+    for (ImageData image : images) {
+      PixelsData pixels = image.getDefaultPixels();
+      if (pixels != null) {
+        summaries.put(image.getId(), new ImageSummary(image.getId(), image.getName(),
+            image.getDescription(), pixels.getSizeX(), pixels.getSizeY(), pixels.getSizeZ(),
+            pixels.getSizeC(), pixels.getSizeT()));
+      } else {
+        summaries.put(image.getId(), new ImageSummary(image.getId(), image.getName(),
+            image.getDescription(), 0, 0, 0, 0, 0));
+      }
+    }
 
-        String channelNamesString = "";
-        List<ChannelData> data = mdf.getChannelData(securityContext, imageId);
-        for (ChannelData c : data) {
-          channelNamesString = channelNamesString + c.getName() + ", ";
-        }
-        channelNamesString = channelNamesString.substring(0, channelNamesString.length() - 2);
+    ImagePrefetcher currentPrefetcher = this.prefetcher;
+    if (currentPrefetcher != null) {
+      schedulePrefetch(currentPrefetcher, context, images);
+    }
+    return summaries.build();
+  }
 
-        imageInfo.put("channels", channelNamesString);
+  public HashMap<String, String> getImageInfo(long datasetId, long imageId) {
+    ImagePrefetcher currentPrefetcher = this.prefetcher;
+    if (currentPrefetcher != null) {
+      HashMap<String, String> cachedInfo = currentPrefetcher.getImageInfo(imageId);
+      if (cachedInfo != null) {
+        return cachedInfo;
       }
+    }
 
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
 
+    SecurityContext context = contextForDataset(datasetId);
+    Collection<ImageData> images = listImages(context, datasetId);
 
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+    Iterator<ImageData> j = images.iterator();
+    ImageData image = null;
+    while (j.hasNext()) {
+      image = j.next();
+      if (image.getId() == imageId) {
+        break;
+      }
+    }
+
+    if (image == null) {
+      return new HashMap<String, String>();
+    }
+    ImageData selectedImage = image;
+    return callServer(OperationClass.BROWSE, true,
+        gateway -> collectImageInfo(gateway, context, selectedImage));
+  }
+
+  /**
+   * Collects name, description, dimensions and channel names of an image
+   *
+   * @param gateway the gateway of the session the metadata is read with
+   * @param context the security context of the image's group
+   * @param image the image to describe
+   * @return the image info as returned by {@link #getImageInfo(long, long)}
+   */
+  private static HashMap<String, String> collectImageInfo(Gateway gateway, SecurityContext context,
+      ImageData image) throws DSOutOfServiceException, DSAccessException, ExecutionException {
+    HashMap<String, String> imageInfo = new HashMap<String, String>();
+
+    imageInfo.put("name", image.getName());
+    imageInfo.put("desc", image.getDescription());
+
+    PixelsData pixels = image.getDefaultPixels();
+    int sizeZ = pixels.getSizeZ(); // The number of z-sections.
+    int sizeT = pixels.getSizeT(); // The number of timepoints.
+    int sizeC = pixels.getSizeC(); // The number of channels.
+    int sizeX = pixels.getSizeX(); // The number of pixels along the X-axis.
+    int sizeY = pixels.getSizeY(); // The number of pixels along the Y-axis.
+
+    imageInfo.put("size",
+        String.valueOf(sizeX) + " x " + String.valueOf(sizeY) + " x " + String.valueOf(sizeZ));
+    imageInfo.put("tps", String.valueOf(sizeT));
+
+    MetadataFacility mdf = gateway.getFacility(MetadataFacility.class);
+
+    String channelNamesString = "";
+    List<ChannelData> data = mdf.getChannelData(context, image.getId());
+    for (ChannelData c : data) {
+      channelNamesString = channelNamesString + c.getName() + ", ";
     }
+    channelNamesString = channelNamesString.substring(0, channelNamesString.length() - 2);
+
+    imageInfo.put("channels", channelNamesString);
 
     return imageInfo;
   }
@@ -940,6 +2337,22 @@ public class BasicOMEROClient {
         + "&bsession=" + sessionUuid;
   }
 
+  /**
+   * Builds the web client addresses for many images at once.
+   *
+   * @param imageIds the omero ids of the selected images
+   * @return addresses at which the images can be viewed using the omero web client, by image id
+   * @see #composeImageDetailAddress(long)
+   * @since 1.3.0
+   */
+  public Map<Long, String> composeImageDetailAddresses(Collection<Long> imageIds) {
+    Map<Long, String> addresses = new LinkedHashMap<>();
+    for (Long imageId : imageIds) {
+      addresses.put(imageId, composeImageDetailAddress(imageId));
+    }
+    return addresses;
+  }
+
   /**
    *
    *
@@ -948,54 +2361,1121 @@ public class BasicOMEROClient {
    * @return
    */
   public ByteArrayInputStream getThumbnail(long datasetId, long imageId) {
+    return new ByteArrayInputStream(getThumbnailEncoded(datasetId, imageId).getBytes());
+  }
+
+  /**
+   * Returns the default sized thumbnail of an image as delivered by the server
+   *
+   * @param datasetId the dataset containing the image
+   * @param imageId the omero identifier of the image
+   * @return the thumbnail as {@link EncodedImage}
+   * @see #getThumbnailEncoded(long, long, int)
+   * @since 1.3.0
+   */
+  public EncodedImage getThumbnailEncoded(long datasetId, long imageId) {
+    return getThumbnailEncoded(datasetId, imageId, DEFAULT_THUMBNAIL_SIZE);
+  }
+
+  /**
+   * Returns a thumbnail of an image as delivered by the server. The bytes are not decoded, so they
+   * can be served to a browser without any pixel processing.
+   *
+   * @param datasetId the dataset containing the image
+   * @param imageId the omero identifier of the image
+   * @param size the width and height of the thumbnail in pixels
+   * @return the thumbnail as {@link EncodedImage}
+   * @since 1.3.0
+   */
+  public EncodedImage getThumbnailEncoded(long datasetId, long imageId, int size) {
+    ImagePrefetcher currentPrefetcher = this.prefetcher;
+    if (currentPrefetcher != null && size == DEFAULT_THUMBNAIL_SIZE) {
+      byte[] cachedThumbnail = currentPrefetcher.getThumbnail(imageId);
+      if (cachedThumbnail != null) {
+        return new EncodedImage(cachedThumbnail, EncodedImage.CONTENT_TYPE_JPEG);
+      }
+    }
+
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
       connect();
     }
 
-    ThumbnailStorePrx store = null;
-    ByteArrayInputStream imageByteStream = null;
-    try {
-      BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
-      Collection<ImageData> images =
-          browse.getImagesForDatasets(this.securityContext, Collections.singletonList(datasetId));
-
-      Iterator<ImageData> j = images.iterator();
-      ImageData image = null;
-      while (j.hasNext()) {
-        image = j.next();
-        if (image.getId() == imageId) {
-          break;
+    SecurityContext context = contextForDataset(datasetId);
+    Collection<ImageData> images = listImages(context, datasetId);
+
+    Iterator<ImageData> j = images.iterator();
+    ImageData image = null;
+    while (j.hasNext()) {
+      image = j.next();
+      if (image.getId() == imageId) {
+        break;
+      }
+    }
+
+    PixelsData pixels = Objects.requireNonNull(image).getDefaultPixels();
+    byte[] array = callServer(OperationClass.THUMBNAIL, true, gateway -> {
+      ThumbnailStorePrx store = gateway.getThumbnailService(context);
+      try {
+        store.setPixelsId(pixels.getId());
+        return store.getThumbnail(omero.rtypes.rint(size), omero.rtypes.rint(size));
+      } finally {
+        closeQuietly(store);
+      }
+    });
+
+    return new EncodedImage(array, EncodedImage.CONTENT_TYPE_JPEG);
+  }
+
+  /**
+   * Enables prefetching of thumbnails and image infos. Whenever {@link #getImages(long)} completes,
+   * the default sized thumbnails and the image infos of the first images of the listing, ordered by
+   * their id, are loaded in the background. Subsequent calls of {@link #getThumbnail(long, long)},
+   * {@link #getThumbnailEncoded(long, long)} and {@link #getImageInfo(long, long)} for these images
+   * are served from the cache.
+   *
+   * Pending prefetch tasks are cancelled when the client disconnects.
+   *
+   * @param imageCount the number of images prefetched after each listing
+   * @since 1.3.0
+   */
+  public synchronized void enablePrefetch(int imageCount) {
+    disablePrefetch();
+    this.prefetcher = new ImagePrefetcher(imageCount);
+  }
+
+  /**
+   * Disables prefetching, cancels pending prefetch tasks and drops the prefetched data.
+   *
+   * @since 1.3.0
+   */
+  public synchronized void disablePrefetch() {
+    if (this.prefetcher != null) {
+      this.prefetcher.shutdown();
+      this.prefetcher = null;
+    }
+  }
+
+  /**
+   * @return the counters of the prefetch cache, null if prefetching is not enabled
+   * @since 1.3.0
+   */
+  public PrefetchStatistics getPrefetchStatistics() {
+    ImagePrefetcher currentPrefetcher = this.prefetcher;
+    return currentPrefetcher != null ? currentPrefetcher.getStatistics() : null;
+  }
+
+  /**
+   * Schedules loading the thumbnails and image infos of the first images of a listing
+   *
+   * @param prefetcher the prefetcher receiving the data
+   * @param context the security context of the dataset's group
+   * @param images the images of a dataset listing
+   */
+  private void schedulePrefetch(ImagePrefetcher prefetcher, SecurityContext context,
+      Collection<ImageData> images) {
+    List<ImageData> selectedImages = images.stream()
+        .filter(image -> image.getDefaultPixels() != null)
+        .sorted(Comparator.comparingLong(ImageData::getId))
+        .limit(prefetcher.getImageCount())
+        .collect(Collectors.toList());
+    if (selectedImages.isEmpty()) {
+      return;
+    }
+
+    prefetcher.submit(() -> {
+      HashMap<Long, Long> imageIdsByPixelsId = new HashMap<>();
+      for (ImageData image : selectedImages) {
+        if (!prefetcher.hasThumbnail(image.getId())) {
+          imageIdsByPixelsId.put(image.getDefaultPixels().getId(), image.getId());
         }
       }
 
-      store = this.gateway.getThumbnailService(securityContext);
+      ThumbnailStorePrx store = null;
+      try {
+        // prefetching is speculative, it only runs while the limits leave room for it
+        ConcurrencyLimiter.Permit thumbnailPermit =
+            imageIdsByPixelsId.isEmpty() ? null : tryAcquirePermit(OperationClass.THUMBNAIL);
+        if (thumbnailPermit != null) {
+          try {
+            store = this.gateway.getThumbnailService(context);
+            Map<Long, byte[]> thumbnails = store.getThumbnailSet(
+                omero.rtypes.rint(DEFAULT_THUMBNAIL_SIZE),
+                omero.rtypes.rint(DEFAULT_THUMBNAIL_SIZE),
+                new ArrayList<>(imageIdsByPixelsId.keySet()));
+            for (Map.Entry<Long, byte[]> thumbnail : thumbnails.entrySet()) {
+              Long imageId = imageIdsByPixelsId.get(thumbnail.getKey());
+              if (imageId != null && thumbnail.getValue() != null) {
+                prefetcher.putThumbnail(imageId, thumbnail.getValue());
+              }
+            }
+            thumbnailPermit.close(true);
+          } finally {
+            thumbnailPermit.close();
+          }
+        }
+
+        for (ImageData image : selectedImages) {
+          if (Thread.currentThread().isInterrupted()) {
+            return;
+          }
+          if (!prefetcher.hasImageInfo(image.getId())) {
+            ConcurrencyLimiter.Permit browsePermit = tryAcquirePermit(OperationClass.BROWSE);
+            if (browsePermit == null) {
+              return;
+            }
+            try {
+              prefetcher.putImageInfo(image.getId(),
+                  collectImageInfo(this.gateway, context, image));
+              browsePermit.close(true);
+            } finally {
+              browsePermit.close();
+            }
+          }
+        }
+      } catch (ServerError | DSOutOfServiceException | DSAccessException
+          | ExecutionException exception) {
+        throw new RuntimeException("Prefetching image data failed.", exception);
+      } finally {
+        closeQuietly(store);
+      }
+    });
+  }
+
+  /**
+   * Enables client-side admission control. Calls to the server are admitted separately per
+   * {@link OperationClass}, each class with a concurrency limit that adapts to the observed
+   * latency: the limit grows while calls are as fast as usual and shrinks when the server slows
+   * down. Calls above the limit wait in a queue no longer than the limit itself for at most the
+   * given time. Calls that find the queue full or wait too long fail with an
+   * {@link OperationRejectedException} without being sent to the server. The calls of bulk
+   * operations, such as exports of many images or queries of all groups, wait for a slot instead,
+   * since their number is already bounded by the operation's parallelism.
+   *
+   * Every limit starts at 4 or the upper bound if that is smaller. Prefetching only uses free
+   * slots and never waits.
+   *
+   * @param maxConcurrency the upper bound of the limit of every operation class
+   * @param maxWait the maximal time a call waits for admission, 0 to reject calls above the
+   *        limit right away
+   * @param unit the unit of the maximal waiting time
+   * @since 1.3.0
+   */
+  public synchronized void enableConcurrencyLimits(int maxConcurrency, long maxWait,
+      TimeUnit unit) {
+    this.concurrencyLimiter = new ConcurrencyLimiter(maxConcurrency, maxWait, unit);
+  }
 
-      PixelsData pixels = Objects.requireNonNull(image).getDefaultPixels();
-      store.setPixelsId(pixels.getId());
-      byte[] array = store.getThumbnail(omero.rtypes.rint(96), omero.rtypes.rint(96));
-      imageByteStream = new ByteArrayInputStream(array);
+  /**
+   * Disables admission control. Calls admitted before end normally.
+   *
+   * @since 1.3.0
+   */
+  public synchronized void disableConcurrencyLimits() {
+    this.concurrencyLimiter = null;
+  }
 
+  /**
+   * @param operationClass the operation class of interest
+   * @return the current limit and counters of the operation class, null if concurrency limits are
+   *         not enabled
+   * @since 1.3.0
+   */
+  public ConcurrencyStatistics getConcurrencyStatistics(OperationClass operationClass) {
+    ConcurrencyLimiter currentLimiter = this.concurrencyLimiter;
+    return currentLimiter != null ? currentLimiter.getStatistics(operationClass) : null;
+  }
+
+  /**
+   * Admits a call of the given class, waiting for a free slot if necessary
+   *
+   * @param operationClass the class of the call
+   * @return the permit of the call, to be closed when the call ends
+   */
+  private ConcurrencyLimiter.Permit acquirePermit(OperationClass operationClass) {
+    if (FAN_OUT_WORKER.get()) {
+      return acquireFanOutPermit(operationClass);
+    }
+    ConcurrencyLimiter currentLimiter = this.concurrencyLimiter;
+    return currentLimiter != null ? currentLimiter.acquire(operationClass)
+        : ConcurrencyLimiter.UNLIMITED;
+  }
+
+  /**
+   * Admits a call of one of the client's own fan-outs, waiting for a free slot as long as it takes.
+   * The fan-out already bounds the number of its calls, so they are not rejected for a full queue.
+   *
+   * @param operationClass the class of the call
+   * @return the permit of the call, to be closed when the call ends
+   */
+  private ConcurrencyLimiter.Permit acquireFanOutPermit(OperationClass operationClass) {
+    ConcurrencyLimiter currentLimiter = this.concurrencyLimiter;
+    return currentLimiter != null ? currentLimiter.acquireWaiting(operationClass)
+        : ConcurrencyLimiter.UNLIMITED;
+  }
+
+  /**
+   * Admits a call of the given class, waiting no longer than the call's deadline allows
+   *
+   * @param operationClass the class of the call
+   * @param deadlineNanos the deadline of the call in {@link System#nanoTime()} units, 0 if the
+   *        call has no deadline
+   * @return the permit of the call, to be closed when the call ends
+   */
+  private ConcurrencyLimiter.Permit acquirePermit(OperationClass operationClass,
+      long deadlineNanos) {
+    ConcurrencyLimiter currentLimiter = this.concurrencyLimiter;
+    if (currentLimiter == null) {
+      return ConcurrencyLimiter.UNLIMITED;
+    }
+    if (FAN_OUT_WORKER.get()) {
+      return deadlineNanos == 0 ? currentLimiter.acquireWaiting(operationClass)
+          : currentLimiter.acquireWaiting(operationClass, deadlineNanos - System.nanoTime());
+    }
+    return deadlineNanos == 0 ? currentLimiter.acquire(operationClass)
+        : currentLimiter.acquire(operationClass, deadlineNanos - System.nanoTime());
+  }
+
+  /**
+   * @param operationClass the class of the call
+   * @return the permit of the call or null if no slot is free at the moment
+   */
+  private ConcurrencyLimiter.Permit tryAcquirePermit(OperationClass operationClass) {
+    ConcurrencyLimiter currentLimiter = this.concurrencyLimiter;
+    return currentLimiter != null ? currentLimiter.tryAcquire(operationClass)
+        : ConcurrencyLimiter.UNLIMITED;
+  }
+
+  /**
+   * Sets a deadline for every single call to the server made by reads, renders, thumbnails and
+   * object creation. The deadline covers waiting for admission when
+   * {@link #enableConcurrencyLimits(int, long, TimeUnit) concurrency limits} are enabled. A call
+   * that misses its deadline fails with an {@link OperationTimeoutException} and the caller is
+   * released, while the server may still complete the call.
+   *
+   * Exports, uploads and downloads of files run without a deadline, since their duration depends
+   * on the amount of data. Catalog scans, like snapshot exports and index builds, apply the
+   * deadline to each page they read.
+   *
+   * @param timeout the maximal duration of a single call, 0 to wait indefinitely
+   * @param unit the unit of the timeout
+   * @since 1.3.0
+   */
+  public void setCallTimeout(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("The timeout must not be negative.");
+    }
+    this.callTimeoutNanos = unit.toNanos(timeout);
+  }
+
+  /**
+   * Enables hedged reads. When an idempotent read, like a listing, an annotation fetch or a
+   * thumbnail, takes longer than the given percentile of the recent latencies of its
+   * {@link OperationClass}, the same read is sent a second time over a second session. The first
+   * result is used and the other attempt is left to finish, its result is discarded. Hedging
+   * starts once enough latencies were observed. While
+   * {@link #enableConcurrencyLimits(int, long, TimeUnit) concurrency limits} are enabled, the
+   * second attempt needs a free slot of its own and is skipped if there is none.
+   *
+   * The second session is opened with the client's credentials in the background, starting now.
+   * Reads are not hedged until it is open. A failed login is retried after a minute at the
+   * earliest.
+   *
+   * @param percentile the latency percentile after which reads are hedged, e.g. 95
+   * @since 1.3.0
+   */
+  public void enableHedgedReads(double percentile) {
+    if (!(percentile > 0 && percentile < 100)) {
+      throw new IllegalArgumentException(
+          "The percentile must be between 0 and 100 but was " + percentile);
+    }
+    this.hedgePercentile = percentile;
+    synchronized (hedgeGatewayLock) {
+      hedgeLoginFailed = false;
+      openHedgeGateway();
+    }
+  }
+
+  /**
+   * Disables hedged reads and closes the second session.
+   *
+   * @since 1.3.0
+   */
+  public void disableHedgedReads() {
+    this.hedgePercentile = Double.NaN;
+    disconnectHedgeGateway();
+  }
+
+  /**
+   * @return the number of reads that were sent a second time since the client was created
+   * @since 1.3.0
+   */
+  public long getHedgedCallCount() {
+    return hedgedCalls.get();
+  }
+
+  /**
+   * A single call to the server. The gateway is passed in since hedged reads run the call over a
+   * second session.
+   *
+   * @param <T> the result type of the call
+   */
+  private interface ServerCall<T> {
+
+    T call(Gateway gateway)
+        throws DSOutOfServiceException, DSAccessException, ExecutionException, ServerError;
+  }
+
+  /**
+   * Runs a call to the server with admission control, the configured deadline and, for idempotent
+   * reads, hedging. Failures are translated into {@link RetryableOperationException}s and
+   * {@link NonRetryableOperationException}s.
+   *
+   * @param operationClass the class of the call
+   * @param hedgeable true if the call is an idempotent read that may be sent twice
+   * @param call the call
+   * @param <T> the result type of the call
+   * @return the result of the call
+   */
+  private <T> T callServer(OperationClass operationClass, boolean hedgeable, ServerCall<T> call) {
+    long timeoutNanos = this.callTimeoutNanos;
+    long deadlineNanos = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0L;
+    double percentile = this.hedgePercentile;
+    long hedgeDelayNanos = hedgeable && !Double.isNaN(percentile)
+        ? latencies.percentile(operationClass, percentile) : -1L;
+
+    ConcurrencyLimiter.Permit permit = acquirePermit(operationClass, deadlineNanos);
+    long start = System.nanoTime();
+    T result;
+    if (deadlineNanos == 0 && hedgeDelayNanos < 0) {
+      // nothing to watch, so the call runs on the calling thread
+      try {
+        result = invoke(call, this.gateway);
+        permit.close(true);
+      } finally {
+        permit.close();
+      }
+    } else {
+      result = invokeWatched(operationClass, call, permit, deadlineNanos, hedgeDelayNanos);
+    }
+    latencies.record(operationClass, System.nanoTime() - start);
+    return result;
+  }
+
+  /**
+   * An attempt of a watched call. The attempt owns the permit of its call and releases it when the
+   * call ends, so an abandoned call keeps its slot until the server answers.
+   *
+   * @param <T> the result type of the call
+   */
+  private static final class Attempt<T> implements Callable<T> {
+
+    private final ServerCall<T> call;
+    private final Gateway gateway;
+    private final ConcurrencyLimiter.Permit permit;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    Attempt(ServerCall<T> call, Gateway gateway, ConcurrencyLimiter.Permit permit) {
+      this.call = call;
+      this.gateway = gateway;
+      this.permit = permit;
+    }
+
+    @Override
+    public T call() {
+      if (!claimed.compareAndSet(false, true)) {
+        throw new CancellationException("The attempt was abandoned before it started.");
+      }
+      try {
+        T result = invoke(call, gateway);
+        permit.close(true);
+        return result;
+      } finally {
+        permit.close();
+      }
+    }
+
+    /**
+     * Releases the permit if the attempt has not started yet, a running attempt releases it when
+     * it ends
+     */
+    void abandon() {
+      if (claimed.compareAndSet(false, true)) {
+        permit.close();
+      }
+    }
+  }
+
+  private static <T> T invoke(ServerCall<T> call, Gateway gateway) {
+    try {
+      return call.call(gateway);
     } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
+      throw new RetryableOperationException(
           "Error while accessing omero service: broken connection, expired session or not logged in",
           dsOutOfServiceException);
     } catch (ExecutionException executionException) {
       throw new RuntimeException("Task aborted unexpectedly.", executionException);
     } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+      throw new NonRetryableOperationException("Could not pull data from the omero server.",
+          dsAccessException);
     } catch (ServerError serverError) {
-      throw new RuntimeException("Omero store interaction failed.", serverError);
+      throw storeInteractionFailed(serverError);
+    } catch (Ice.TimeoutException | Ice.SocketException iceException) {
+      throw new RetryableOperationException("Connection to the omero server failed.",
+          iceException);
     }
+  }
+
+  /**
+   * Runs a call on the call executor, so the caller can be released at the deadline. If a hedge
+   * delay is given and the call is still running after it, the call is sent again over the second
+   * session and the first result wins. Attempts that lost or missed the deadline are not
+   * interrupted, since an interrupted Ice call could not close its services on the server. They
+   * keep one of the {@link #MAX_CALL_THREADS} threads until the server answers or the session
+   * ends.
+   *
+   * @param operationClass the class of the call
+   * @param call the call
+   * @param permit the permit of the call, released when the first attempt ends
+   * @param deadlineNanos the deadline in {@link System#nanoTime()} units, 0 for none
+   * @param hedgeDelayNanos the delay after which the call is hedged, negative for no hedging
+   * @param <T> the result type of the call
+   * @return the first result
+   */
+  private <T> T invokeWatched(OperationClass operationClass, ServerCall<T> call,
+      ConcurrencyLimiter.Permit permit, long deadlineNanos, long hedgeDelayNanos) {
+    CompletionService<T> completionService = new ExecutorCompletionService<>(callExecutor());
+    List<Attempt<T>> attempts = new ArrayList<>(2);
+    long start = System.nanoTime();
+    attempts.add(new Attempt<>(call, this.gateway, permit));
+    int running = 1;
+    boolean hedgePending = hedgeDelayNanos >= 0;
 
     try {
-      store.close();
-    } catch (ServerError serverError) {
-      throw new RuntimeException("Omero store could not be closed.", serverError);
+      // an attempt that was never run releases its permit when it is abandoned below
+      completionService.submit(attempts.get(0));
+      while (true) {
+        long now = System.nanoTime();
+        long waitNanos = deadlineNanos != 0 ? deadlineNanos - now : Long.MAX_VALUE;
+        if (hedgePending) {
+          waitNanos = Math.min(waitNanos, start + hedgeDelayNanos - now);
+        }
+        Future<T> completed = waitNanos > 0
+            ? completionService.poll(waitNanos, TimeUnit.NANOSECONDS) : completionService.poll();
+
+        if (completed != null) {
+          running--;
+          try {
+            return completed.get();
+          } catch (ExecutionException executionException) {
+            // a failed attempt only counts once no other attempt can succeed
+            if (running == 0) {
+              Throwable cause = executionException.getCause();
+              if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+              }
+              throw new RuntimeException("Task aborted unexpectedly.", cause);
+            }
+          }
+        } else if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0) {
+          throw new OperationTimeoutException("Omero " + operationClass + " call did not complete"
+              + " within " + TimeUnit.NANOSECONDS.toMillis(deadlineNanos - start) + " ms.",
+              operationClass);
+        } else if (hedgePending) {
+          hedgePending = false;
+          Gateway secondGateway = getHedgeGateway();
+          ConcurrencyLimiter.Permit hedgePermit =
+              secondGateway != null ? tryAcquirePermit(operationClass) : null;
+          if (hedgePermit != null) {
+            Attempt<T> hedge = new Attempt<>(call, secondGateway, hedgePermit);
+            attempts.add(hedge);
+            completionService.submit(hedge);
+            running++;
+            hedgedCalls.incrementAndGet();
+          }
+        }
+      }
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Omero call was interrupted.", interruptedException);
+    } finally {
+      for (Attempt<T> attempt : attempts) {
+        attempt.abandon();
+      }
+    }
+  }
+
+  /**
+   * @return the gateway of the second session used for hedged reads, null while it is not open
+   */
+  private Gateway getHedgeGateway() {
+    synchronized (hedgeGatewayLock) {
+      if (this.hedgeGateway != null && this.hedgeGateway.isConnected()) {
+        return this.hedgeGateway;
+      }
+      openHedgeGateway();
+      return null;
+    }
+  }
+
+  /**
+   * Starts the login of the second session in the background unless a login is running or a
+   * failed login is too recent. Must be called while holding the hedge gateway lock.
+   */
+  private void openHedgeGateway() {
+    if (hedgeLoginRunning
+        || hedgeLoginFailed && System.nanoTime() - hedgeLoginRetryNanos < 0) {
+      return;
+    }
+    hedgeLoginRunning = true;
+    callExecutor().execute(() -> {
+      Gateway secondGateway = new Gateway(new SimpleLogger());
+      boolean connected;
+      try {
+        secondGateway.connect(new LoginCredentials(username, password, hostname, port));
+        connected = true;
+      } catch (DSOutOfServiceException dsOutOfServiceException) {
+        // hedging is best effort, reads run without it until the next login
+        connected = false;
+      }
+      synchronized (hedgeGatewayLock) {
+        hedgeLoginRunning = false;
+        if (!connected) {
+          hedgeLoginFailed = true;
+          hedgeLoginRetryNanos = System.nanoTime() + HEDGE_LOGIN_BACKOFF_NANOS;
+        } else if (Double.isNaN(hedgePercentile)) {
+          // hedging was disabled during the login
+          secondGateway.disconnect();
+        } else {
+          hedgeLoginFailed = false;
+          this.hedgeGateway = secondGateway;
+        }
+      }
+    });
+  }
+
+  private void disconnectHedgeGateway() {
+    synchronized (hedgeGatewayLock) {
+      if (this.hedgeGateway != null) {
+        this.hedgeGateway.disconnect();
+        this.hedgeGateway = null;
+      }
+    }
+  }
+
+  /**
+   * Translates a server error into a typed exception. Busy servers and lost sessions are worth a
+   * retry, everything else is not.
+   *
+   * @param serverError the error raised by the server
+   * @return the exception to be thrown
+   */
+  private static RuntimeException storeInteractionFailed(ServerError serverError) {
+    if (serverError instanceof ConcurrencyException || serverError instanceof SessionException) {
+      return new RetryableOperationException("Omero store interaction failed.", serverError);
+    }
+    return new NonRetryableOperationException("Omero store interaction failed.", serverError);
+  }
+
+  /**
+   * Runs a single round of the incremental catalog sync. All changes of projects, datasets, images,
+   * their links and map annotations since the previous round are read from the server's event log.
+   * They are applied to the client's caches and handed to the registered
+   * {@link CatalogChangeListener listeners}.
+   *
+   * The first call starts following changes from the latest event on the server. Every round also
+   * reads a window of entries before the last position again, so changes whose transactions
+   * committed late are not missed; changes found before are not handed out twice. If applying the
+   * changes to the client's caches fails, the failure is thrown and the next round reads the same
+   * changes again.
+   *
+   * @return the number of changes found
+   * @since 1.3.0
+   */
+  public int syncCatalog() {
+    return getCatalogSync().syncNow();
+  }
+
+  /**
+   * Runs the incremental catalog sync periodically on a background thread until
+   * {@link #stopCatalogSync()} is called or the client disconnects.
+   *
+   * @param period the delay between two sync rounds
+   * @param unit the unit of the period
+   * @see #syncCatalog()
+   * @since 1.3.0
+   */
+  public void startCatalogSync(long period, TimeUnit unit) {
+    getCatalogSync().start(period, unit);
+  }
+
+  /**
+   * Stops the periodic catalog sync and a sync round running in the background. The high-water
+   * mark is kept, so a restarted sync continues with the changes since the last round.
+   *
+   * @since 1.3.0
+   */
+  public synchronized void stopCatalogSync() {
+    if (this.catalogSync != null) {
+      this.catalogSync.stop();
+    }
+  }
+
+  /**
+   * @return the failure of the last sync round run in the background, either periodically or
+   *         after a snapshot import, null if that round succeeded or no such round ran
+   * @since 1.3.0
+   */
+  public synchronized RuntimeException getCatalogSyncFailure() {
+    return this.catalogSync != null ? this.catalogSync.getBackgroundFailure() : null;
+  }
+
+  /**
+   * @return the id of the last event log entry processed by the catalog sync, -1 if the sync has
+   *         not started yet
+   * @since 1.3.0
+   */
+  public synchronized long getCatalogHighWaterMark() {
+    return this.catalogSync != null ? this.catalogSync.getHighWaterMark() : -1L;
+  }
+
+  /**
+   * @param listener receives the changes found by the catalog sync
+   * @since 1.3.0
+   */
+  public void addCatalogChangeListener(CatalogChangeListener listener) {
+    catalogChangeListeners.add(Objects.requireNonNull(listener));
+  }
+
+  /**
+   * @param listener a listener registered before
+   * @since 1.3.0
+   */
+  public void removeCatalogChangeListener(CatalogChangeListener listener) {
+    catalogChangeListeners.remove(listener);
+  }
+
+  private synchronized CatalogSync getCatalogSync() {
+    if (this.catalogSync == null) {
+      if (!this.isConnected()) {
+        connect();
+      }
+      startCatalogSyncAt(fetchLatestEventLogId());
+    }
+    return this.catalogSync;
+  }
+
+  /**
+   * Creates the catalog sync with the given high-water mark, replacing an existing sync
+   *
+   * @param highWaterMark the log id after which changes are followed
+   */
+  private synchronized void startCatalogSyncAt(long highWaterMark) {
+    stopCatalogSync();
+    this.catalogSync =
+        new CatalogSync(this::fetchCatalogChanges, this::applyCatalogChanges,
+            catalogChangeListeners, highWaterMark);
+  }
+
+  private long fetchLatestEventLogId() {
+    List<List<RType>> rows =
+        projection(securityContext, "select max(el.id) from EventLog el", new ParametersI());
+    if (rows.isEmpty() || rows.get(0).isEmpty() || !(rows.get(0).get(0) instanceof RLong)) {
+      return 0L;
+    }
+    return ((RLong) rows.get(0).get(0)).getValue();
+  }
+
+  /**
+   * Reads the event log entries of followed object types after the given log id in all groups.
+   * Since every group is paged on its own, the merged result is cut at the smallest last id of
+   * all full pages; later entries are fetched in the next call. The scanned position covers
+   * entries that are dropped, such as reindexing, so the mark moves past pages without changes.
+   *
+   * @param afterLogId the log id after which entries are read
+   * @param limit the page size per group
+   * @return the changes ordered by log id and the position up to which the log was read
+   */
+  private CatalogSync.ChangePage fetchCatalogChanges(long afterLogId, int limit) {
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    List<RType> entityTypes = new ArrayList<>();
+    for (CatalogChange.ObjectType type : CatalogChange.ObjectType.values()) {
+      entityTypes.add(omero.rtypes.rstring(type.getEntityType()));
+    }
+
+    Map<Long, List<List<RType>>> rowsByGroup = queryAllGroups((gateway, context) -> {
+      ParametersI parameters = new ParametersI();
+      parameters.add("after", omero.rtypes.rlong(afterLogId));
+      parameters.add("types", omero.rtypes.rlist(entityTypes));
+      parameters.page(0, limit);
+      return gateway.getQueryService(context).projection(
+          "select el.id, el.entityType, el.entityId, el.action from EventLog el"
+              + " where el.id > :after and el.entityType in (:types) order by el.id",
+          parameters);
+    });
+
+    long cutoff = Long.MAX_VALUE;
+    long lastLogId = afterLogId;
+    TreeMap<Long, CatalogChange> changes = new TreeMap<>();
+    for (List<List<RType>> rows : rowsByGroup.values()) {
+      for (List<RType> row : rows) {
+        long logId = ((RLong) row.get(0)).getValue();
+        lastLogId = Math.max(lastLogId, logId);
+        CatalogChange.ObjectType type =
+            CatalogChange.ObjectType.fromEntityType(((RString) row.get(1)).getValue());
+        CatalogChange.Action action;
+        try {
+          action = CatalogChange.Action.valueOf(((RString) row.get(3)).getValue());
+        } catch (IllegalArgumentException unknownAction) {
+          // e.g. reindexing, which does not change the object
+          continue;
+        }
+        if (type != null) {
+          changes.put(logId,
+              new CatalogChange(logId, type, ((RLong) row.get(2)).getValue(), action));
+        }
+      }
+      if (rows.size() >= limit) {
+        cutoff = Math.min(cutoff, ((RLong) rows.get(rows.size() - 1).get(0)).getValue());
+      }
+    }
+    boolean full = cutoff != Long.MAX_VALUE;
+    return new CatalogSync.ChangePage(new ArrayList<>(changes.headMap(cutoff, true).values()),
+        full ? cutoff : lastLogId, full);
+  }
+
+  /**
+   * Applies changes found by the catalog sync to the client's caches. Changed images are dropped
+   * from the format index and the prefetch caches, changed projects and datasets are reloaded into
+   * the project and dataset maps, and objects with changed map annotations are indexed again.
+   *
+   * Removing a dataset from a project without deleting it is only noticed once the project itself
+   * changes, since the event log does not record the parent of a deleted link.
+   *
+   * @param changes the changes of one sync round
+   */
+  private void applyCatalogChanges(List<CatalogChange> changes) {
+    Set<Long> reloadedProjects = new HashSet<>();
+    Set<Long> deletedProjects = new HashSet<>();
+    Set<Long> addedProjectLinks = new HashSet<>();
+    Set<Long> changedMapAnnotations = new HashSet<>();
+    Map<CatalogChange.ObjectType, Set<Long>> addedAnnotationLinks = new HashMap<>();
+    ImagePrefetcher currentPrefetcher = this.prefetcher;
+    MapAnnotationIndex index = this.mapAnnotationIndex;
+    HashMap<Long, Set<DatasetData>> datasets = this.datasetMap;
+
+    for (CatalogChange change : changes) {
+      long objectId = change.getObjectId();
+      boolean deleted = change.getAction() == CatalogChange.Action.DELETE;
+      switch (change.getObjectType()) {
+        case IMAGE:
+          imageFormats.invalidate(objectId);
+          imageGroups.remove(objectId);
+          if (currentPrefetcher != null) {
+            currentPrefetcher.invalidate(objectId);
+          }
+          if (deleted && index != null) {
+            index.remove(MapAnnotationIndex.ObjectType.IMAGE, objectId);
+          }
+          break;
+        case PROJECT:
+          if (deleted) {
+            deletedProjects.add(objectId);
+            projectGroups.remove(objectId);
+            if (index != null) {
+              index.remove(MapAnnotationIndex.ObjectType.PROJECT, objectId);
+            }
+          } else {
+            reloadedProjects.add(objectId);
+          }
+          break;
+        case DATASET:
+          if (deleted && index != null) {
+            index.remove(MapAnnotationIndex.ObjectType.DATASET, objectId);
+          }
+          if (datasets != null) {
+            for (Map.Entry<Long, Set<DatasetData>> project : datasets.entrySet()) {
+              for (DatasetData dataset : project.getValue()) {
+                if (dataset.getId() == objectId) {
+                  reloadedProjects.add(project.getKey());
+                }
+              }
+            }
+          }
+          if (deleted) {
+            datasetGroups.remove(objectId);
+          }
+          break;
+        case PROJECT_DATASET_LINK:
+          if (!deleted) {
+            addedProjectLinks.add(objectId);
+          }
+          break;
+        case MAP_ANNOTATION:
+          changedMapAnnotations.add(objectId);
+          break;
+        case PROJECT_ANNOTATION_LINK:
+        case DATASET_ANNOTATION_LINK:
+        case IMAGE_ANNOTATION_LINK:
+          if (!deleted) {
+            addedAnnotationLinks.computeIfAbsent(change.getObjectType(), type -> new HashSet<>())
+                .add(objectId);
+          }
+          break;
+        default:
+          break;
+      }
     }
 
-    return imageByteStream;
+    if (this.projectMap != null) {
+      reloadedProjects.addAll(findLinkParents("ProjectDatasetLink", "l.id", addedProjectLinks));
+      reloadedProjects.removeAll(deletedProjects);
+      updateProjects(deletedProjects, reloadedProjects);
+    }
+    if (index != null) {
+      reindexMapAnnotations(index, changedMapAnnotations, addedAnnotationLinks);
+    }
+  }
+
+  /**
+   * Replaces the project and dataset maps with copies in which the given projects are removed or
+   * reloaded. Maps handed out earlier are not modified.
+   *
+   * @param deletedProjectIds the projects to be removed
+   * @param reloadedProjectIds the projects to be loaded again in all groups
+   */
+  private void updateProjects(Collection<Long> deletedProjectIds,
+      Collection<Long> reloadedProjectIds) {
+    if (deletedProjectIds.isEmpty() && reloadedProjectIds.isEmpty()) {
+      return;
+    }
+    HashMap<Long, String> projects = new HashMap<Long, String>(this.projectMap);
+    HashMap<Long, Set<DatasetData>> datasets =
+        new HashMap<Long, Set<DatasetData>>(this.datasetMap);
+    for (Long projectId : deletedProjectIds) {
+      projects.remove(projectId);
+      datasets.remove(projectId);
+    }
+
+    if (!reloadedProjectIds.isEmpty()) {
+      Map<Long, Collection<ProjectData>> projectsByGroup =
+          queryAllGroups((gateway, context) -> {
+            BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
+            return browse.getProjects(context, reloadedProjectIds);
+          });
+      for (Map.Entry<Long, Collection<ProjectData>> groupProjects : projectsByGroup.entrySet()) {
+        for (ProjectData project : groupProjects.getValue()) {
+          projects.put(project.getId(), project.getName());
+          datasets.put(project.getId(), project.getDatasets());
+          projectGroups.put(project.getId(), groupProjects.getKey());
+          for (DatasetData dataset : project.getDatasets()) {
+            datasetGroups.put(dataset.getId(), groupProjects.getKey());
+          }
+        }
+      }
+    }
 
+    this.projectMap = projects;
+    this.datasetMap = datasets;
+  }
+
+  /**
+   * Indexes the map annotations of all objects affected by changed map annotations or new
+   * annotation links again
+   *
+   * @param index the index to be updated
+   * @param mapAnnotationIds changed map annotations
+   * @param linkIds new annotation links by link type
+   */
+  private void reindexMapAnnotations(MapAnnotationIndex index, Set<Long> mapAnnotationIds,
+      Map<CatalogChange.ObjectType, Set<Long>> linkIds) {
+    Map<MapAnnotationIndex.ObjectType, String> linkTypes = new LinkedHashMap<>();
+    linkTypes.put(MapAnnotationIndex.ObjectType.PROJECT, "ProjectAnnotationLink");
+    linkTypes.put(MapAnnotationIndex.ObjectType.DATASET, "DatasetAnnotationLink");
+    linkTypes.put(MapAnnotationIndex.ObjectType.IMAGE, "ImageAnnotationLink");
+    Map<MapAnnotationIndex.ObjectType, CatalogChange.ObjectType> changeTypes = new HashMap<>();
+    changeTypes.put(MapAnnotationIndex.ObjectType.PROJECT,
+        CatalogChange.ObjectType.PROJECT_ANNOTATION_LINK);
+    changeTypes.put(MapAnnotationIndex.ObjectType.DATASET,
+        CatalogChange.ObjectType.DATASET_ANNOTATION_LINK);
+    changeTypes.put(MapAnnotationIndex.ObjectType.IMAGE,
+        CatalogChange.ObjectType.IMAGE_ANNOTATION_LINK);
+
+    for (Map.Entry<MapAnnotationIndex.ObjectType, String> linkType : linkTypes.entrySet()) {
+      Set<Long> objectIds = new HashSet<>();
+      objectIds.addAll(findLinkParents(linkType.getValue(), "l.child.id", mapAnnotationIds));
+      objectIds.addAll(findLinkParents(linkType.getValue(), "l.id",
+          linkIds.getOrDefault(changeTypes.get(linkType.getKey()), Collections.emptySet())));
+      if (objectIds.isEmpty()) {
+        continue;
+      }
+
+      for (Long objectId : objectIds) {
+        index.remove(linkType.getKey(), objectId);
+      }
+      scanAllGroups(context -> scanMapAnnotations(context, linkType.getValue(),
+          linkType.getKey(), objectIds, index));
+    }
+  }
+
+  /**
+   * Finds the parents of links selected by the given property in all groups
+   *
+   * @param linkType the link class, e.g. ProjectDatasetLink
+   * @param property the link property the ids refer to, e.g. l.id or l.child.id
+   * @param ids the ids to look for
+   * @return the parent ids of the matching links
+   */
+  private Set<Long> findLinkParents(String linkType, String property, Collection<Long> ids) {
+    Set<Long> parentIds = new HashSet<>();
+    if (ids.isEmpty()) {
+      return parentIds;
+    }
+    Map<Long, List<List<RType>>> rowsByGroup = queryAllGroups((gateway, context) -> {
+      ParametersI parameters = new ParametersI();
+      parameters.addIds(ids);
+      return gateway.getQueryService(context).projection(
+          "select l.parent.id from " + linkType + " l where " + property + " in (:ids)",
+          parameters);
+    });
+    for (List<List<RType>> rows : rowsByGroup.values()) {
+      for (List<RType> row : rows) {
+        parentIds.add(((RLong) row.get(0)).getValue());
+      }
+    }
+    return parentIds;
+  }
+
+  /**
+   * Reads the project, dataset and image catalog of all groups of the user and writes it to a
+   * binary snapshot file. Each group is read with one project query and, per batch of datasets,
+   * a paged projection over the dataset links that returns the links together with the names,
+   * descriptions and dimensions of the images. No image objects are loaded; the groups are read
+   * concurrently.
+   *
+   * @param file the file the snapshot is written to, replaced atomically
+   * @return the written snapshot
+   * @see #importCatalogSnapshot(Path)
+   * @since 1.3.0
+   */
+  public CatalogSnapshot exportCatalogSnapshot(Path file) {
+    final int DATASET_BATCH_SIZE = 500;
+    final int PAGE_SIZE = 10000;
+
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    // changes made while the catalog is read are replayed by the sync after an import
+    CatalogSnapshot.Builder builder = new CatalogSnapshot.Builder(fetchLatestEventLogId());
+    scanAllGroups(context -> {
+      long groupId = context.getGroupID();
+      Collection<ProjectData> projects = callServer(OperationClass.BROWSE, true,
+          gateway -> gateway.getFacility(BrowseFacility.class).getProjects(context));
+      List<Long> datasetIds = new ArrayList<>();
+      for (ProjectData project : projects) {
+        builder.addProject(project.getId(), groupId, project.getName(), project.getDescription());
+        for (DatasetData dataset : project.getDatasets()) {
+          builder.addDataset(dataset.getId(), groupId, dataset.getName(),
+              dataset.getDescription());
+          builder.linkDataset(project.getId(), dataset.getId());
+          datasetIds.add(dataset.getId());
+        }
+      }
+
+      // images are read as plain values in pages of links, no image objects are loaded
+      for (int start = 0; start < datasetIds.size(); start += DATASET_BATCH_SIZE) {
+        List<Long> batch =
+            datasetIds.subList(start, Math.min(start + DATASET_BATCH_SIZE, datasetIds.size()));
+        long afterLinkId = 0L;
+        List<List<RType>> rows;
+        do {
+          ParametersI parameters = new ParametersI();
+          parameters.addIds(batch);
+          parameters.add("after", omero.rtypes.rlong(afterLinkId));
+          parameters.page(0, PAGE_SIZE);
+          rows = projection(context, "select l.id, l.parent.id, i.id, i.name, i.description,"
+              + " p.sizeX, p.sizeY, p.sizeZ, p.sizeC, p.sizeT from DatasetImageLink l"
+              + " join l.child i left outer join i.pixels p"
+              + " where l.parent.id in (:ids) and l.id > :after order by l.id", parameters);
+          for (List<RType> row : rows) {
+            long imageId = numberValue(row.get(2));
+            builder.linkImage(numberValue(row.get(1)), imageId);
+            builder.addImage(imageId, stringValue(row.get(3)), stringValue(row.get(4)),
+                (int) numberValue(row.get(5)), (int) numberValue(row.get(6)),
+                (int) numberValue(row.get(7)), (int) numberValue(row.get(8)),
+                (int) numberValue(row.get(9)));
+          }
+          if (!rows.isEmpty()) {
+            afterLinkId = numberValue(rows.get(rows.size() - 1).get(0));
+          }
+        } while (rows.size() >= PAGE_SIZE);
+      }
+    });
+
+    CatalogSnapshot snapshot = builder.build();
+    try {
+      snapshot.writeTo(file);
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not write catalog snapshot to " + file, ioException);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Loads a catalog snapshot written by {@link #exportCatalogSnapshot(Path)} without contacting
+   * the server. The snapshot's projects and datasets replace the client's project and dataset
+   * maps, so {@link #getDatasets(long)} can be served right away.
+   *
+   * The catalog sync continues from the snapshot's high-water mark. A first sync round is started
+   * on the background thread of the sync, which reconciles the client's caches with the changes
+   * made on the server since the snapshot was taken and notifies the
+   * {@link CatalogChangeListener listeners}. The round is cancelled by {@link #stopCatalogSync()}
+   * and {@link #disconnect()}; if it fails, the failure is reported by
+   * {@link #getCatalogSyncFailure()}.
+   *
+   * @param file the snapshot file
+   * @return the loaded snapshot
+   * @since 1.3.0
+   */
+  public CatalogSnapshot importCatalogSnapshot(Path file) {
+    CatalogSnapshot snapshot;
+    try {
+      snapshot = CatalogSnapshot.readFrom(file);
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not read catalog snapshot from " + file, ioException);
+    }
+
+    HashMap<Long, String> projects = snapshot.getProjects();
+    HashMap<Long, Set<DatasetData>> datasets = new HashMap<Long, Set<DatasetData>>();
+    for (Long projectId : projects.keySet()) {
+      projectGroups.put(projectId, snapshot.getProjectGroupId(projectId));
+      Set<DatasetData> projectDatasets = new HashSet<>();
+      for (long datasetId : snapshot.getDatasetIds(projectId)) {
+        int position = snapshot.findDataset(datasetId);
+        if (position < 0) {
+          continue;
+        }
+        DatasetData dataset = new DatasetData(new DatasetI(datasetId, true));
+        dataset.setName(snapshot.getDatasetName(position));
+        dataset.setDescription(snapshot.getDatasetDescription(position));
+        projectDatasets.add(dataset);
+        datasetGroups.put(datasetId, snapshot.getDatasetGroupId(position));
+      }
+      datasets.put(projectId, projectDatasets);
+    }
+    this.projectMap = projects;
+    this.datasetMap = datasets;
+
+    synchronized (this) {
+      startCatalogSyncAt(snapshot.getHighWaterMark());
+      this.catalogSync.syncInBackground();
+    }
+    return snapshot;
   }
 
   /**
@@ -1006,6 +3486,7 @@ public class BasicOMEROClient {
    */
   @Override
   protected void finalize() throws Throwable {
+    this.disablePrefetch();
     this.disconnect();
     super.finalize();
   }
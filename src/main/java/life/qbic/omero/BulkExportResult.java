@@ -0,0 +1,45 @@
+package life.qbic.omero;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of an export of many images
+ *
+ * Exports continue after a failing image, so a result contains the images that were exported as
+ * well as the images that failed together with the cause.
+ *
+ * @param <T> the type describing an exported image, e.g. a file or a link
+ * @since 1.3.0
+ */
+public final class BulkExportResult<T> {
+
+  private final Map<Long, T> exported;
+  private final Map<Long, RuntimeException> failed;
+
+  BulkExportResult(Map<Long, T> exported, Map<Long, RuntimeException> failed) {
+    this.exported = Collections.unmodifiableMap(exported);
+    this.failed = Collections.unmodifiableMap(failed);
+  }
+
+  /**
+   * @return the exported images by image id
+   */
+  public Map<Long, T> getExported() {
+    return exported;
+  }
+
+  /**
+   * @return the causes of failed exports by image id
+   */
+  public Map<Long, RuntimeException> getFailed() {
+    return failed;
+  }
+
+  /**
+   * @return true if no image failed
+   */
+  public boolean isComplete() {
+    return failed.isEmpty();
+  }
+}
@@ -0,0 +1,94 @@
+package life.qbic.omero;
+
+/**
+ * A change of a single object on the OMERO server, as recorded in the server's event log
+ *
+ * @since 1.3.0
+ */
+public final class CatalogChange {
+
+  /**
+   * The kinds of objects whose changes are followed
+   */
+  public enum ObjectType {
+    PROJECT("ome.model.containers.Project"),
+    DATASET("ome.model.containers.Dataset"),
+    IMAGE("ome.model.core.Image"),
+    PROJECT_DATASET_LINK("ome.model.containers.ProjectDatasetLink"),
+    DATASET_IMAGE_LINK("ome.model.containers.DatasetImageLink"),
+    MAP_ANNOTATION("ome.model.annotations.MapAnnotation"),
+    PROJECT_ANNOTATION_LINK("ome.model.annotations.ProjectAnnotationLink"),
+    DATASET_ANNOTATION_LINK("ome.model.annotations.DatasetAnnotationLink"),
+    IMAGE_ANNOTATION_LINK("ome.model.annotations.ImageAnnotationLink");
+
+    private final String entityType;
+
+    ObjectType(String entityType) {
+      this.entityType = entityType;
+    }
+
+    /**
+     * @return the server side class name used in the event log
+     */
+    String getEntityType() {
+      return entityType;
+    }
+
+    /**
+     * @param entityType a server side class name from the event log
+     * @return the matching object type or null if the type is not followed
+     */
+    static ObjectType fromEntityType(String entityType) {
+      for (ObjectType type : values()) {
+        if (type.entityType.equals(entityType)) {
+          return type;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The kinds of changes recorded in the event log
+   */
+  public enum Action {
+    INSERT, UPDATE, DELETE
+  }
+
+  private final long logId;
+  private final ObjectType objectType;
+  private final long objectId;
+  private final Action action;
+
+  CatalogChange(long logId, ObjectType objectType, long objectId, Action action) {
+    this.logId = logId;
+    this.objectType = objectType;
+    this.objectId = objectId;
+    this.action = action;
+  }
+
+  /**
+   * @return the id of the event log entry, increasing with every change on the server
+   */
+  public long getLogId() {
+    return logId;
+  }
+
+  public ObjectType getObjectType() {
+    return objectType;
+  }
+
+  public long getObjectId() {
+    return objectId;
+  }
+
+  public Action getAction() {
+    return action;
+  }
+
+  @Override
+  public String toString() {
+    return "CatalogChange{" + "logId=" + logId + ", objectType=" + objectType + ", objectId="
+        + objectId + ", action=" + action + '}';
+  }
+}
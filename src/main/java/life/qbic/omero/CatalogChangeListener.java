@@ -0,0 +1,19 @@
+package life.qbic.omero;
+
+import java.util.List;
+
+/**
+ * Receives the changes found by an incremental catalog sync
+ *
+ * @since 1.3.0
+ */
+public interface CatalogChangeListener {
+
+  /**
+   * Called once per sync round that found changes. Listeners are called on the sync thread, in the
+   * order they were registered.
+   *
+   * @param changes the changes since the previous round, ordered by their log id
+   */
+  void onChanges(List<CatalogChange> changes);
+}
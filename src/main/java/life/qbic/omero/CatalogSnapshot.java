@@ -0,0 +1,658 @@
+package life.qbic.omero;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compact, versioned binary snapshot of the project, dataset and image catalog
+ *
+ * A snapshot holds ids, names, descriptions, groups, pixel dimensions and parent links. It is
+ * written by {@link BasicOMEROClient#exportCatalogSnapshot(Path)} and loaded with memory-mapped I/O
+ * by {@link BasicOMEROClient#importCatalogSnapshot(Path)}. Every snapshot records the event log
+ * high-water mark at export time, so the changes since then can be applied by the catalog sync.
+ *
+ * All records are sorted by id and links are sorted by parent, so lookups use binary search and
+ * loading needs no hashing. Instances are immutable.
+ *
+ * @since 1.3.0
+ */
+public final class CatalogSnapshot {
+
+  private static final int FILE_MAGIC = 0x4f4d4353;
+  private static final int FILE_VERSION = 1;
+
+  private final long createdAt;
+  private final long highWaterMark;
+
+  private final long[] projectIds;
+  private final long[] projectGroupIds;
+  private final String[] projectNames;
+  private final String[] projectDescriptions;
+
+  private final long[] datasetIds;
+  private final long[] datasetGroupIds;
+  private final String[] datasetNames;
+  private final String[] datasetDescriptions;
+
+  private final long[] imageIds;
+  private final String[] imageNames;
+  private final String[] imageDescriptions;
+  /**
+   * Five dimensions per image: x, y, z, c and t
+   */
+  private final int[] imageDimensions;
+
+  /**
+   * Pairs of parent and child id, sorted by parent and child
+   */
+  private final long[] projectDatasetLinks;
+  private final long[] datasetImageLinks;
+
+  private CatalogSnapshot(long createdAt, long highWaterMark, long[] projectIds,
+      long[] projectGroupIds, String[] projectNames, String[] projectDescriptions,
+      long[] datasetIds, long[] datasetGroupIds, String[] datasetNames,
+      String[] datasetDescriptions, long[] imageIds, String[] imageNames,
+      String[] imageDescriptions, int[] imageDimensions, long[] projectDatasetLinks,
+      long[] datasetImageLinks) {
+    this.createdAt = createdAt;
+    this.highWaterMark = highWaterMark;
+    this.projectIds = projectIds;
+    this.projectGroupIds = projectGroupIds;
+    this.projectNames = projectNames;
+    this.projectDescriptions = projectDescriptions;
+    this.datasetIds = datasetIds;
+    this.datasetGroupIds = datasetGroupIds;
+    this.datasetNames = datasetNames;
+    this.datasetDescriptions = datasetDescriptions;
+    this.imageIds = imageIds;
+    this.imageNames = imageNames;
+    this.imageDescriptions = imageDescriptions;
+    this.imageDimensions = imageDimensions;
+    this.projectDatasetLinks = projectDatasetLinks;
+    this.datasetImageLinks = datasetImageLinks;
+  }
+
+  /**
+   * @return the time the snapshot was taken in milliseconds since the epoch
+   */
+  public long getCreatedAt() {
+    return createdAt;
+  }
+
+  /**
+   * @return the id of the latest event log entry when the snapshot was taken
+   */
+  public long getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  /**
+   * @return the names of all projects by project id
+   * @see BasicOMEROClient#loadProjects()
+   */
+  public HashMap<Long, String> getProjects() {
+    HashMap<Long, String> projects = new HashMap<Long, String>(projectIds.length * 2);
+    for (int i = 0; i < projectIds.length; i++) {
+      projects.put(projectIds[i], projectNames[i]);
+    }
+    return projects;
+  }
+
+  /**
+   * @param projectId the omero identifier of a project
+   * @return name and description of the project's datasets by dataset id
+   * @see BasicOMEROClient#getDatasets(long)
+   */
+  public HashMap<Long, HashMap<String, String>> getDatasets(long projectId) {
+    HashMap<Long, HashMap<String, String>> datasets =
+        new HashMap<Long, HashMap<String, String>>();
+    for (long datasetId : getDatasetIds(projectId)) {
+      int position = Arrays.binarySearch(datasetIds, datasetId);
+      if (position >= 0) {
+        HashMap<String, String> datasetInfo = new HashMap<String, String>();
+        datasetInfo.put("name", datasetNames[position]);
+        datasetInfo.put("desc", datasetDescriptions[position]);
+        datasets.put(datasetId, datasetInfo);
+      }
+    }
+    return datasets;
+  }
+
+  /**
+   * @param datasetId the omero identifier of a dataset
+   * @return the names of the dataset's images by image id
+   * @see BasicOMEROClient#getImages(long)
+   */
+  public HashMap<Long, String> getImages(long datasetId) {
+    HashMap<Long, String> images = new HashMap<Long, String>();
+    for (long imageId : children(datasetImageLinks, datasetId)) {
+      int position = Arrays.binarySearch(imageIds, imageId);
+      if (position >= 0) {
+        images.put(imageId, imageNames[position]);
+      }
+    }
+    return images;
+  }
+
+  /**
+   * Returns the image info in the layout of {@link BasicOMEROClient#getImageInfo(long, long)},
+   * except that the snapshot holds no channel names: the key "channelCount" with the number of
+   * channels takes the place of "channels".
+   *
+   * @param imageId the omero identifier of an image
+   * @return name, description, size, number of time points and number of channels of the image,
+   *         an empty map if the image is not part of the snapshot
+   */
+  public HashMap<String, String> getImageInfo(long imageId) {
+    HashMap<String, String> imageInfo = new HashMap<String, String>();
+    int position = Arrays.binarySearch(imageIds, imageId);
+    if (position < 0) {
+      return imageInfo;
+    }
+    int dimensions = position * 5;
+    imageInfo.put("name", imageNames[position]);
+    imageInfo.put("desc", imageDescriptions[position]);
+    imageInfo.put("size", imageDimensions[dimensions] + " x " + imageDimensions[dimensions + 1]
+        + " x " + imageDimensions[dimensions + 2]);
+    imageInfo.put("tps", String.valueOf(imageDimensions[dimensions + 4]));
+    imageInfo.put("channelCount", String.valueOf(imageDimensions[dimensions + 3]));
+    return imageInfo;
+  }
+
+  /**
+   * @return name and description of all projects by project id
+   * @see BasicOMEROClient#loadProjectSummariesInAllGroups()
+   */
+  public LongKeyedMap<ProjectSummary> getProjectSummaries() {
+    LongKeyedMap.Builder<ProjectSummary> summaries =
+        new LongKeyedMap.Builder<>(projectIds.length);
+    for (int i = 0; i < projectIds.length; i++) {
+      summaries.put(projectIds[i],
+          new ProjectSummary(projectIds[i], projectNames[i], projectDescriptions[i]));
+    }
+    return summaries.build();
+  }
+
+  /**
+   * @param projectId the omero identifier of a project
+   * @return name and description of the project's datasets by dataset id
+   * @see BasicOMEROClient#getDatasetSummaries(long)
+   */
+  public LongKeyedMap<DatasetSummary> getDatasetSummaries(long projectId) {
+    long[] children = getDatasetIds(projectId);
+    LongKeyedMap.Builder<DatasetSummary> summaries = new LongKeyedMap.Builder<>(children.length);
+    for (long datasetId : children) {
+      int position = Arrays.binarySearch(datasetIds, datasetId);
+      if (position >= 0) {
+        summaries.put(datasetId, new DatasetSummary(datasetId, datasetNames[position],
+            datasetDescriptions[position]));
+      }
+    }
+    return summaries.build();
+  }
+
+  /**
+   * @param datasetId the omero identifier of a dataset
+   * @return name, description and dimensions of the dataset's images by image id
+   * @see BasicOMEROClient#getImageSummaries(long)
+   */
+  public LongKeyedMap<ImageSummary> getImageSummaries(long datasetId) {
+    long[] children = children(datasetImageLinks, datasetId);
+    LongKeyedMap.Builder<ImageSummary> summaries = new LongKeyedMap.Builder<>(children.length);
+    for (long imageId : children) {
+      int position = Arrays.binarySearch(imageIds, imageId);
+      if (position >= 0) {
+        int dimensions = position * 5;
+        summaries.put(imageId, new ImageSummary(imageId, imageNames[position],
+            imageDescriptions[position], imageDimensions[dimensions],
+            imageDimensions[dimensions + 1], imageDimensions[dimensions + 2],
+            imageDimensions[dimensions + 3], imageDimensions[dimensions + 4]));
+      }
+    }
+    return summaries.build();
+  }
+
+  public int getProjectCount() {
+    return projectIds.length;
+  }
+
+  public int getDatasetCount() {
+    return datasetIds.length;
+  }
+
+  public int getImageCount() {
+    return imageIds.length;
+  }
+
+  long[] getDatasetIds(long projectId) {
+    return children(projectDatasetLinks, projectId);
+  }
+
+  long getProjectGroupId(long projectId) {
+    return projectGroupIds[Arrays.binarySearch(projectIds, projectId)];
+  }
+
+  /**
+   * @return the position of the dataset or a negative number if it is not part of the snapshot
+   */
+  int findDataset(long datasetId) {
+    return Arrays.binarySearch(datasetIds, datasetId);
+  }
+
+  long getDatasetGroupId(int position) {
+    return datasetGroupIds[position];
+  }
+
+  String getDatasetName(int position) {
+    return datasetNames[position];
+  }
+
+  String getDatasetDescription(int position) {
+    return datasetDescriptions[position];
+  }
+
+  /**
+   * Finds the children of a parent in a sorted link array by binary search
+   */
+  private static long[] children(long[] links, long parentId) {
+    int low = 0;
+    int high = links.length / 2;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (links[middle * 2] < parentId) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    int end = low;
+    while (end < links.length / 2 && links[end * 2] == parentId) {
+      end++;
+    }
+    long[] children = new long[end - low];
+    for (int i = low; i < end; i++) {
+      children[i - low] = links[i * 2 + 1];
+    }
+    return children;
+  }
+
+  /**
+   * Writes the snapshot to a file. The file is replaced atomically.
+   *
+   * @param file the file the snapshot is written to
+   * @throws IOException if the file could not be written
+   */
+  public void writeTo(Path file) throws IOException {
+    Path temporaryFile = Files.createTempFile(file.toAbsolutePath().getParent(),
+        file.getFileName() + ".", ".part");
+    try {
+      try (DataOutputStream output = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16))) {
+        output.writeInt(FILE_MAGIC);
+        output.writeInt(FILE_VERSION);
+        output.writeLong(createdAt);
+        output.writeLong(highWaterMark);
+        output.writeInt(projectIds.length);
+        output.writeInt(datasetIds.length);
+        output.writeInt(imageIds.length);
+        output.writeInt(projectDatasetLinks.length / 2);
+        output.writeInt(datasetImageLinks.length / 2);
+
+        for (int i = 0; i < projectIds.length; i++) {
+          output.writeLong(projectIds[i]);
+          output.writeLong(projectGroupIds[i]);
+          writeString(output, projectNames[i]);
+          writeString(output, projectDescriptions[i]);
+        }
+        for (int i = 0; i < datasetIds.length; i++) {
+          output.writeLong(datasetIds[i]);
+          output.writeLong(datasetGroupIds[i]);
+          writeString(output, datasetNames[i]);
+          writeString(output, datasetDescriptions[i]);
+        }
+        for (int i = 0; i < imageIds.length; i++) {
+          output.writeLong(imageIds[i]);
+          writeString(output, imageNames[i]);
+          writeString(output, imageDescriptions[i]);
+          for (int dimension = 0; dimension < 5; dimension++) {
+            output.writeInt(imageDimensions[i * 5 + dimension]);
+          }
+        }
+        for (long value : projectDatasetLinks) {
+          output.writeLong(value);
+        }
+        for (long value : datasetImageLinks) {
+          output.writeLong(value);
+        }
+      }
+      Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    if (value == null) {
+      output.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  /**
+   * Loads a snapshot written by {@link #writeTo(Path)}. The file is memory-mapped and decoded in a
+   * single pass.
+   *
+   * @param file the file containing the snapshot
+   * @return the loaded snapshot
+   * @throws IOException if the file could not be read, has an unknown format or is truncated
+   */
+  public static CatalogSnapshot readFrom(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(file + " is too large to be mapped.");
+      }
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      requireRemaining(buffer, 2L * Integer.BYTES + 2L * Long.BYTES, file);
+      if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+        throw new IOException(file + " is not a catalog snapshot of a supported version.");
+      }
+      long createdAt = buffer.getLong();
+      long highWaterMark = buffer.getLong();
+      int projectCount = readCount(buffer, file);
+      int datasetCount = readCount(buffer, file);
+      int imageCount = readCount(buffer, file);
+      int projectDatasetLinkCount = readCount(buffer, file);
+      int datasetImageLinkCount = readCount(buffer, file);
+      // every record takes at least its fixed-size fields, strings may be empty
+      requireRemaining(buffer, projectCount * (2L * Long.BYTES + 2L * Integer.BYTES)
+          + datasetCount * (2L * Long.BYTES + 2L * Integer.BYTES)
+          + imageCount * (Long.BYTES + 7L * Integer.BYTES)
+          + (projectDatasetLinkCount + (long) datasetImageLinkCount) * 2L * Long.BYTES, file);
+
+      long[] projectIds = new long[projectCount];
+      long[] projectGroupIds = new long[projectCount];
+      String[] projectNames = new String[projectCount];
+      String[] projectDescriptions = new String[projectCount];
+      for (int i = 0; i < projectCount; i++) {
+        projectIds[i] = buffer.getLong();
+        projectGroupIds[i] = buffer.getLong();
+        projectNames[i] = readString(buffer, file);
+        projectDescriptions[i] = readString(buffer, file);
+      }
+
+      long[] datasetIds = new long[datasetCount];
+      long[] datasetGroupIds = new long[datasetCount];
+      String[] datasetNames = new String[datasetCount];
+      String[] datasetDescriptions = new String[datasetCount];
+      for (int i = 0; i < datasetCount; i++) {
+        datasetIds[i] = buffer.getLong();
+        datasetGroupIds[i] = buffer.getLong();
+        datasetNames[i] = readString(buffer, file);
+        datasetDescriptions[i] = readString(buffer, file);
+      }
+
+      long[] imageIds = new long[imageCount];
+      String[] imageNames = new String[imageCount];
+      String[] imageDescriptions = new String[imageCount];
+      int[] imageDimensions = new int[imageCount * 5];
+      for (int i = 0; i < imageCount; i++) {
+        imageIds[i] = buffer.getLong();
+        imageNames[i] = readString(buffer, file);
+        imageDescriptions[i] = readString(buffer, file);
+        for (int dimension = 0; dimension < 5; dimension++) {
+          imageDimensions[i * 5 + dimension] = buffer.getInt();
+        }
+      }
+
+      requireRemaining(buffer,
+          (projectDatasetLinkCount + (long) datasetImageLinkCount) * 2L * Long.BYTES, file);
+      long[] projectDatasetLinks = new long[projectDatasetLinkCount * 2];
+      buffer.asLongBuffer().get(projectDatasetLinks);
+      buffer.position(buffer.position() + projectDatasetLinks.length * Long.BYTES);
+      long[] datasetImageLinks = new long[datasetImageLinkCount * 2];
+      buffer.asLongBuffer().get(datasetImageLinks);
+
+      return new CatalogSnapshot(createdAt, highWaterMark, projectIds, projectGroupIds,
+          projectNames, projectDescriptions, datasetIds, datasetGroupIds, datasetNames,
+          datasetDescriptions, imageIds, imageNames, imageDescriptions, imageDimensions,
+          projectDatasetLinks, datasetImageLinks);
+    } catch (RuntimeException exception) {
+      // any other inconsistency of a corrupt file
+      throw new IOException(file + " is not a valid catalog snapshot.", exception);
+    }
+  }
+
+  private static String readString(ByteBuffer buffer, Path file) throws IOException {
+    requireRemaining(buffer, Integer.BYTES, file);
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    requireRemaining(buffer, length, file);
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int readCount(ByteBuffer buffer, Path file) throws IOException {
+    requireRemaining(buffer, Integer.BYTES, file);
+    int count = buffer.getInt();
+    if (count < 0) {
+      throw new IOException(file + " is not a valid catalog snapshot.");
+    }
+    return count;
+  }
+
+  /**
+   * @throws IOException if fewer bytes than needed are left, as in a truncated or corrupt file
+   */
+  private static void requireRemaining(ByteBuffer buffer, long bytes, Path file)
+      throws IOException {
+    if (bytes > buffer.remaining()) {
+      throw new IOException(file + " is not a valid catalog snapshot.");
+    }
+  }
+
+  /**
+   * Collects the catalog while it is read from the server. Records may be added in any order and
+   * from several threads; duplicates are merged, the record added last wins. Images and links are
+   * held in growing primitive arrays, so a large catalog needs no object per image while it is
+   * collected.
+   */
+  static final class Builder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final long highWaterMark;
+    private final Map<Long, Record> projects = new TreeMap<>();
+    private final Map<Long, Record> datasets = new TreeMap<>();
+
+    private long[] imageIds = new long[INITIAL_CAPACITY];
+    private String[] imageNames = new String[INITIAL_CAPACITY];
+    private String[] imageDescriptions = new String[INITIAL_CAPACITY];
+    private int[] imageDimensions = new int[INITIAL_CAPACITY * 5];
+    private int imageCount;
+
+    /**
+     * Pairs of parent and child id in the order they were added
+     */
+    private long[] projectDatasetLinks = new long[INITIAL_CAPACITY * 2];
+    private int projectDatasetLinkCount;
+    private long[] datasetImageLinks = new long[INITIAL_CAPACITY * 2];
+    private int datasetImageLinkCount;
+
+    /**
+     * @param highWaterMark the id of the latest event log entry before the catalog was read
+     */
+    Builder(long highWaterMark) {
+      this.highWaterMark = highWaterMark;
+    }
+
+    synchronized Builder addProject(long id, long groupId, String name, String description) {
+      projects.put(id, new Record(groupId, name, description));
+      return this;
+    }
+
+    synchronized Builder addDataset(long id, long groupId, String name, String description) {
+      datasets.put(id, new Record(groupId, name, description));
+      return this;
+    }
+
+    synchronized Builder addImage(long id, String name, String description, int sizeX, int sizeY,
+        int sizeZ, int sizeC, int sizeT) {
+      if (imageCount == imageIds.length) {
+        int capacity = imageIds.length * 2;
+        imageIds = Arrays.copyOf(imageIds, capacity);
+        imageNames = Arrays.copyOf(imageNames, capacity);
+        imageDescriptions = Arrays.copyOf(imageDescriptions, capacity);
+        imageDimensions = Arrays.copyOf(imageDimensions, capacity * 5);
+      }
+      imageIds[imageCount] = id;
+      imageNames[imageCount] = name;
+      imageDescriptions[imageCount] = description;
+      int dimensions = imageCount * 5;
+      imageDimensions[dimensions] = sizeX;
+      imageDimensions[dimensions + 1] = sizeY;
+      imageDimensions[dimensions + 2] = sizeZ;
+      imageDimensions[dimensions + 3] = sizeC;
+      imageDimensions[dimensions + 4] = sizeT;
+      imageCount++;
+      return this;
+    }
+
+    synchronized Builder linkDataset(long projectId, long datasetId) {
+      projectDatasetLinks = addLink(projectDatasetLinks, projectDatasetLinkCount++, projectId,
+          datasetId);
+      return this;
+    }
+
+    synchronized Builder linkImage(long datasetId, long imageId) {
+      datasetImageLinks = addLink(datasetImageLinks, datasetImageLinkCount++, datasetId, imageId);
+      return this;
+    }
+
+    private static long[] addLink(long[] links, int index, long parentId, long childId) {
+      long[] grownLinks = index * 2 < links.length ? links : Arrays.copyOf(links, links.length * 2);
+      grownLinks[index * 2] = parentId;
+      grownLinks[index * 2 + 1] = childId;
+      return grownLinks;
+    }
+
+    synchronized CatalogSnapshot build() {
+      long[] projectIds = new long[projects.size()];
+      long[] projectGroupIds = new long[projects.size()];
+      String[] projectNames = new String[projects.size()];
+      String[] projectDescriptions = new String[projects.size()];
+      int i = 0;
+      for (Map.Entry<Long, Record> project : projects.entrySet()) {
+        projectIds[i] = project.getKey();
+        projectGroupIds[i] = project.getValue().groupId;
+        projectNames[i] = project.getValue().name;
+        projectDescriptions[i] = project.getValue().description;
+        i++;
+      }
+
+      long[] datasetIds = new long[datasets.size()];
+      long[] datasetGroupIds = new long[datasets.size()];
+      String[] datasetNames = new String[datasets.size()];
+      String[] datasetDescriptions = new String[datasets.size()];
+      i = 0;
+      for (Map.Entry<Long, Record> dataset : datasets.entrySet()) {
+        datasetIds[i] = dataset.getKey();
+        datasetGroupIds[i] = dataset.getValue().groupId;
+        datasetNames[i] = dataset.getValue().name;
+        datasetDescriptions[i] = dataset.getValue().description;
+        i++;
+      }
+
+      // the sort is stable, so the last record of every run of equal ids is the one added last
+      int[] positions = IndexSort.sortedPositions(imageIds, imageCount);
+      int distinctCount = 0;
+      for (i = 0; i < positions.length; i++) {
+        if (i + 1 == positions.length || imageIds[positions[i]] != imageIds[positions[i + 1]]) {
+          distinctCount++;
+        }
+      }
+      long[] sortedImageIds = new long[distinctCount];
+      String[] sortedImageNames = new String[distinctCount];
+      String[] sortedImageDescriptions = new String[distinctCount];
+      int[] sortedImageDimensions = new int[distinctCount * 5];
+      int target = 0;
+      for (i = 0; i < positions.length; i++) {
+        int position = positions[i];
+        if (i + 1 < positions.length && imageIds[position] == imageIds[positions[i + 1]]) {
+          continue;
+        }
+        sortedImageIds[target] = imageIds[position];
+        sortedImageNames[target] = imageNames[position];
+        sortedImageDescriptions[target] = imageDescriptions[position];
+        System.arraycopy(imageDimensions, position * 5, sortedImageDimensions, target * 5, 5);
+        target++;
+      }
+
+      return new CatalogSnapshot(System.currentTimeMillis(), highWaterMark, projectIds,
+          projectGroupIds, projectNames, projectDescriptions, datasetIds, datasetGroupIds,
+          datasetNames, datasetDescriptions, sortedImageIds, sortedImageNames,
+          sortedImageDescriptions, sortedImageDimensions,
+          sortedLinks(projectDatasetLinks, projectDatasetLinkCount),
+          sortedLinks(datasetImageLinks, datasetImageLinkCount));
+    }
+
+    private static final class Record {
+
+      private final long groupId;
+      private final String name;
+      private final String description;
+
+      private Record(long groupId, String name, String description) {
+        this.groupId = groupId;
+        this.name = name;
+        this.description = description;
+      }
+    }
+
+    /**
+     * @param links pairs of parent and child id
+     * @param count the number of pairs
+     * @return the distinct pairs sorted by parent and child
+     */
+    private static long[] sortedLinks(long[] links, int count) {
+      long[] parents = new long[count];
+      long[] children = new long[count];
+      for (int i = 0; i < count; i++) {
+        parents[i] = links[i * 2];
+        children[i] = links[i * 2 + 1];
+      }
+      int[] positions = IndexSort.sortedPositions(children, count);
+      IndexSort.sort(parents, positions);
+
+      long[] flattened = new long[count * 2];
+      int size = 0;
+      for (int position : positions) {
+        // skip duplicates, which appear when a link is reported by several queries
+        if (size > 0 && flattened[size - 2] == parents[position]
+            && flattened[size - 1] == children[position]) {
+          continue;
+        }
+        flattened[size++] = parents[position];
+        flattened[size++] = children[position];
+      }
+      return Arrays.copyOf(flattened, size);
+    }
+  }
+}
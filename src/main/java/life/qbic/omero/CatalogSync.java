@@ -0,0 +1,236 @@
+package life.qbic.omero;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the changes on an OMERO server incrementally
+ *
+ * The sync keeps a high-water mark, the id of the last event log entry it has seen. Every round
+ * only asks for entries after that mark and hands them to the registered listeners, so the cost of
+ * a round depends on the number of changes, not on the size of the catalog. Rounds can be run on
+ * demand or periodically on a background thread.
+ *
+ * The mark moves past a page of entries once the cache updater has applied it, also if none of the
+ * entries is of interest. If the cache updater fails, the mark stays and the page is read again in
+ * the next round.
+ *
+ * Event log ids are drawn when an entry is written, not when its transaction commits, so an entry
+ * of a long transaction can become visible after later entries moved the mark past its id. Every
+ * round therefore reads the log again from a fixed number of ids before the mark. Changes in this
+ * overlap that were handed out before are dropped, so listeners see each change once. A new sync
+ * does not know which changes were handed out, its first round may repeat changes of the overlap.
+ *
+ * @since 1.3.0
+ */
+class CatalogSync {
+
+  private static final int PAGE_SIZE = 1000;
+
+  /**
+   * The number of log ids before the mark that are read again in every round
+   */
+  static final long OVERLAP_LOG_IDS = 5000;
+
+  /**
+   * Provides the changes recorded on the server
+   */
+  interface ChangeSource {
+
+    /**
+     * @param afterLogId only changes with a later log id are returned
+     * @param limit the maximal number of log entries read
+     * @return the changes after the mark ordered by log id and the position up to which the log
+     *         was read
+     */
+    ChangePage fetchChanges(long afterLogId, int limit);
+  }
+
+  /**
+   * The changes found in one page of the event log
+   */
+  static final class ChangePage {
+
+    private final List<CatalogChange> changes;
+    private final long scannedLogId;
+    private final boolean full;
+
+    /**
+     * @param changes the changes of interest, ordered by log id
+     * @param scannedLogId the log id up to which all entries were read, including entries that
+     *        are not of interest
+     * @param full true if the page was full, so more entries may follow
+     */
+    ChangePage(List<CatalogChange> changes, long scannedLogId, boolean full) {
+      this.changes = changes;
+      this.scannedLogId = scannedLogId;
+      this.full = full;
+    }
+
+    List<CatalogChange> getChanges() {
+      return changes;
+    }
+
+    long getScannedLogId() {
+      return scannedLogId;
+    }
+
+    boolean isFull() {
+      return full;
+    }
+  }
+
+  private final ChangeSource source;
+  private final CatalogChangeListener cacheUpdater;
+  private final List<CatalogChangeListener> listeners;
+  private final Object syncLock = new Object();
+  private final NavigableSet<Long> deliveredLogIds = new TreeSet<>();
+  private volatile long highWaterMark;
+  private volatile RuntimeException backgroundFailure;
+
+  private ScheduledExecutorService scheduler;
+  private ScheduledFuture<?> scheduledSync;
+
+  /**
+   * @param source provides the changes
+   * @param cacheUpdater applies the changes to the client's caches before the listeners are called
+   * @param listeners receive the changes, the list may be modified while the sync runs
+   * @param highWaterMark the log id after which changes are followed
+   */
+  CatalogSync(ChangeSource source, CatalogChangeListener cacheUpdater,
+      List<CatalogChangeListener> listeners, long highWaterMark) {
+    this.source = source;
+    this.cacheUpdater = cacheUpdater;
+    this.listeners = listeners;
+    this.highWaterMark = highWaterMark;
+  }
+
+  long getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  /**
+   * Fetches all changes from the start of the overlap before the high-water mark page by page and
+   * hands those that were not handed out before to the cache updater and the listeners. A failure
+   * of the cache updater stops the round before the mark moves past the page. The mark advances
+   * also if a listener fails; the first listener failure is rethrown once all pages were
+   * processed.
+   *
+   * @return the number of new changes found
+   */
+  int syncNow() {
+    synchronized (syncLock) {
+      int changeCount = 0;
+      RuntimeException listenerFailure = null;
+      long afterLogId = highWaterMark - OVERLAP_LOG_IDS;
+      ChangePage page;
+      do {
+        page = source.fetchChanges(afterLogId, PAGE_SIZE);
+        List<CatalogChange> changes = new ArrayList<>();
+        for (CatalogChange change : page.getChanges()) {
+          if (!deliveredLogIds.contains(change.getLogId())) {
+            changes.add(change);
+          }
+        }
+        if (!changes.isEmpty()) {
+          cacheUpdater.onChanges(changes);
+          for (CatalogChange change : changes) {
+            deliveredLogIds.add(change.getLogId());
+          }
+          for (CatalogChangeListener listener : listeners) {
+            try {
+              listener.onChanges(changes);
+            } catch (RuntimeException exception) {
+              if (listenerFailure == null) {
+                listenerFailure = exception;
+              }
+            }
+          }
+          changeCount += changes.size();
+        }
+        afterLogId = Math.max(afterLogId, page.getScannedLogId());
+        highWaterMark = Math.max(highWaterMark, afterLogId);
+      } while (page.isFull());
+      // entries at or before the start of the next overlap are not read again
+      deliveredLogIds.headSet(highWaterMark - OVERLAP_LOG_IDS, true).clear();
+
+      if (listenerFailure != null) {
+        throw listenerFailure;
+      }
+      return changeCount;
+    }
+  }
+
+  /**
+   * @return the failure of the last round run on the background thread, null if it succeeded or
+   *         no round ran there yet
+   */
+  RuntimeException getBackgroundFailure() {
+    return backgroundFailure;
+  }
+
+  /**
+   * Runs a single sync round on the daemon thread of the sync. The round is cancelled by
+   * {@link #stop()}.
+   */
+  synchronized void syncInBackground() {
+    scheduler().execute(this::runBackgroundRound);
+  }
+
+  /**
+   * Runs a sync round periodically on a daemon thread. Failing rounds are retried in the next
+   * period. A running schedule is replaced.
+   *
+   * @param period the delay between the end of a round and the start of the next
+   * @param unit the unit of the period
+   */
+  synchronized void start(long period, TimeUnit unit) {
+    stop();
+    scheduledSync = scheduler().scheduleWithFixedDelay(this::runBackgroundRound, 0, period, unit);
+  }
+
+  private ScheduledExecutorService scheduler() {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "omero-catalog-sync");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return scheduler;
+  }
+
+  private void runBackgroundRound() {
+    try {
+      syncNow();
+      backgroundFailure = null;
+    } catch (RuntimeException exception) {
+      // the next round starts from the same high-water mark
+      backgroundFailure = exception;
+    }
+  }
+
+  /**
+   * Stops periodic syncing and rounds running in the background. The high-water mark is kept.
+   */
+  synchronized void stop() {
+    if (scheduledSync != null) {
+      scheduledSync.cancel(true);
+      scheduledSync = null;
+    }
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  synchronized boolean isRunning() {
+    return scheduledSync != null;
+  }
+}
@@ -0,0 +1,315 @@
+package life.qbic.omero;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Client-side admission control with an adaptive concurrency limit per {@link OperationClass}
+ *
+ * Every class starts with a small limit that follows the observed latency with a gradient rule:
+ * while calls are about as fast as the fastest recent call the limit grows by its square root, and
+ * when calls slow down the limit shrinks in proportion to the slowdown. The limit thus settles near
+ * the concurrency the server handles without queueing internally. The fastest call is tracked per
+ * time window, so the baseline follows lasting changes of the server's speed. Only successful
+ * calls are sampled: errors often return quickly and would make the server look faster than it is.
+ *
+ * Calls above the limit wait in a bounded queue for at most the configured time. Calls that find
+ * the queue full are rejected right away, so a traffic spike is shed before it reaches the server.
+ * Calls of the client's own fan-out, whose number the client already bounds, instead wait for a
+ * slot without being subject to the queue bound.
+ *
+ * @since 1.3.0
+ */
+class ConcurrencyLimiter {
+
+  private static final int INITIAL_LIMIT = 4;
+  /**
+   * The time after which the fastest call of the previous window becomes the new baseline
+   */
+  private static final long BASELINE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+  /**
+   * Weight of a new sample in the average latency
+   */
+  private static final double RTT_WEIGHT = 0.3;
+  /**
+   * Slowdown of the average latency against the baseline that is tolerated without shrinking
+   */
+  private static final double TOLERANCE = 1.5;
+  /**
+   * Share of the computed limit applied per sample
+   */
+  private static final double SMOOTHING = 0.2;
+
+  /**
+   * Admission of a single call. Closing the permit ends the call. Only the first close counts.
+   */
+  interface Permit extends AutoCloseable {
+
+    /**
+     * Ends the call
+     *
+     * @param succeeded true if the call succeeded, only then its latency is sampled
+     */
+    void close(boolean succeeded);
+
+    /**
+     * Ends the call without sampling its latency, as for a failed call
+     */
+    @Override
+    default void close() {
+      close(false);
+    }
+  }
+
+  /**
+   * The permit handed out while no limits are enabled
+   */
+  static final Permit UNLIMITED = succeeded -> {
+  };
+
+  private final Map<OperationClass, Limit> limits = new EnumMap<>(OperationClass.class);
+  private final long maxWaitNanos;
+
+  /**
+   * @param maxLimit the upper bound of the limit of every operation class
+   * @param maxWait the maximal time a call waits for admission, 0 to reject calls above the limit
+   *        right away
+   * @param unit the unit of the maximal waiting time
+   */
+  ConcurrencyLimiter(int maxLimit, long maxWait, TimeUnit unit) {
+    this(maxLimit, maxWait, unit, System::nanoTime);
+  }
+
+  /**
+   * @param maxLimit the upper bound of the limit of every operation class
+   * @param maxWait the maximal time a call waits for admission
+   * @param unit the unit of the maximal waiting time
+   * @param clock the time source of latencies in nanoseconds, replaced in tests
+   */
+  ConcurrencyLimiter(int maxLimit, long maxWait, TimeUnit unit, LongSupplier clock) {
+    if (maxLimit < 1) {
+      throw new IllegalArgumentException("The concurrency limit must be at least 1.");
+    }
+    if (maxWait < 0) {
+      throw new IllegalArgumentException("The waiting time must not be negative.");
+    }
+    this.maxWaitNanos = unit.toNanos(maxWait);
+    for (OperationClass operationClass : OperationClass.values()) {
+      limits.put(operationClass, new Limit(operationClass, maxLimit, clock));
+    }
+  }
+
+  /**
+   * Admits a call, waiting for a free slot if necessary
+   *
+   * @param operationClass the class of the call
+   * @return the permit of the call, to be closed when the call ends
+   * @throws OperationRejectedException if the queue is full or the waiting time passed
+   */
+  Permit acquire(OperationClass operationClass) {
+    return limits.get(operationClass).acquire(maxWaitNanos, true, true);
+  }
+
+  /**
+   * Admits a call, waiting for a free slot no longer than the remaining time of the call's deadline
+   *
+   * @param operationClass the class of the call
+   * @param remainingNanos the time left until the deadline of the call
+   * @return the permit of the call, to be closed when the call ends
+   * @throws OperationRejectedException if the queue is full or the waiting time passed
+   */
+  Permit acquire(OperationClass operationClass, long remainingNanos) {
+    return limits.get(operationClass)
+        .acquire(Math.max(0L, Math.min(maxWaitNanos, remainingNanos)), true, true);
+  }
+
+  /**
+   * Admits a call of the client's own fan-out, waiting for a free slot as long as it takes. The
+   * call waits in line with the queued calls but is never rejected for a full queue.
+   *
+   * @param operationClass the class of the call
+   * @return the permit of the call, to be closed when the call ends
+   */
+  Permit acquireWaiting(OperationClass operationClass) {
+    return limits.get(operationClass).acquire(Long.MAX_VALUE, true, false);
+  }
+
+  /**
+   * Admits a call of the client's own fan-out, waiting for a free slot no longer than the remaining
+   * time of the call's deadline. The call is never rejected for a full queue.
+   *
+   * @param operationClass the class of the call
+   * @param remainingNanos the time left until the deadline of the call
+   * @return the permit of the call, to be closed when the call ends
+   * @throws OperationRejectedException if no slot became free before the deadline
+   */
+  Permit acquireWaiting(OperationClass operationClass, long remainingNanos) {
+    return limits.get(operationClass).acquire(Math.max(0L, remainingNanos), true, false);
+  }
+
+  /**
+   * Admits a call only if a slot is free and nobody is waiting. Meant for speculative calls that
+   * should give way to regular calls.
+   *
+   * @param operationClass the class of the call
+   * @return the permit of the call or null if the call was not admitted
+   */
+  Permit tryAcquire(OperationClass operationClass) {
+    return limits.get(operationClass).acquire(0, false, true);
+  }
+
+  ConcurrencyStatistics getStatistics(OperationClass operationClass) {
+    return limits.get(operationClass).getStatistics();
+  }
+
+  /**
+   * The adaptive limit of one operation class
+   */
+  private static final class Limit {
+
+    private final OperationClass operationClass;
+    private final int maxLimit;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private double limit;
+    private long baselineRttNanos = Long.MAX_VALUE;
+    private long windowMinRttNanos = Long.MAX_VALUE;
+    private long windowStartNanos;
+    private double averageRttNanos;
+    private int inFlight;
+    private int queued;
+    private long admitted;
+    private long rejected;
+
+    Limit(OperationClass operationClass, int maxLimit, LongSupplier clock) {
+      this.operationClass = operationClass;
+      this.maxLimit = maxLimit;
+      this.clock = clock;
+      this.limit = Math.min(INITIAL_LIMIT, maxLimit);
+    }
+
+    Permit acquire(long maxWaitNanos, boolean rejectWithException, boolean boundedQueue) {
+      lock.lock();
+      try {
+        // queued calls go first, new calls must not overtake them
+        if (queued == 0 && inFlight < (int) limit) {
+          return admit();
+        }
+        if (maxWaitNanos == 0) {
+          return reject(rejectWithException, "no slot is free");
+        }
+        if (boundedQueue && queued >= (int) limit) {
+          return reject(rejectWithException, "queue is full");
+        }
+
+        queued++;
+        try {
+          long remainingNanos = maxWaitNanos;
+          while (inFlight >= (int) limit) {
+            if (remainingNanos <= 0) {
+              return reject(rejectWithException, "no slot became free in time");
+            }
+            remainingNanos = released.awaitNanos(remainingNanos);
+          }
+        } catch (InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("Waiting for admission was interrupted.",
+              interruptedException);
+        } finally {
+          queued--;
+        }
+        return admit();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private Permit admit() {
+      inFlight++;
+      admitted++;
+      int inFlightAtStart = inFlight;
+      long start = clock.getAsLong();
+      return new Permit() {
+        private boolean closed;
+
+        @Override
+        public void close(boolean succeeded) {
+          if (!closed) {
+            closed = true;
+            release(succeeded ? clock.getAsLong() - start : -1L, inFlightAtStart);
+          }
+        }
+      };
+    }
+
+    private Permit reject(boolean rejectWithException, String reason) {
+      rejected++;
+      if (!rejectWithException) {
+        return null;
+      }
+      throw new OperationRejectedException(
+          "Concurrency limit of " + (int) limit + " for " + operationClass + " calls reached, "
+              + reason + ".", operationClass);
+    }
+
+    /**
+     * @param rttNanos the latency of the call, negative if the call failed and is not sampled
+     */
+    private void release(long rttNanos, int inFlightAtStart) {
+      lock.lock();
+      try {
+        inFlight--;
+        if (rttNanos >= 0) {
+          updateLimit(Math.max(rttNanos, 1L), inFlightAtStart);
+        }
+        released.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void updateLimit(long rttNanos, int inFlightAtStart) {
+      long now = clock.getAsLong();
+      windowMinRttNanos = Math.min(windowMinRttNanos, rttNanos);
+      if (averageRttNanos == 0) {
+        windowStartNanos = now;
+        baselineRttNanos = rttNanos;
+        averageRttNanos = rttNanos;
+        return;
+      }
+      if (now - windowStartNanos > BASELINE_WINDOW_NANOS) {
+        baselineRttNanos = windowMinRttNanos;
+        windowMinRttNanos = Long.MAX_VALUE;
+        windowStartNanos = now;
+      } else {
+        baselineRttNanos = Math.min(baselineRttNanos, rttNanos);
+      }
+      averageRttNanos += (rttNanos - averageRttNanos) * RTT_WEIGHT;
+
+      // a limit that is not used says nothing about the server's capacity
+      if (inFlightAtStart < limit / 2) {
+        return;
+      }
+      double gradient =
+          Math.max(0.5, Math.min(1.0, TOLERANCE * baselineRttNanos / averageRttNanos));
+      double newLimit = limit * gradient + Math.sqrt(limit);
+      limit = Math.max(1.0, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+
+    ConcurrencyStatistics getStatistics() {
+      lock.lock();
+      try {
+        return new ConcurrencyStatistics(operationClass, (int) limit, inFlight, queued, admitted,
+            rejected);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
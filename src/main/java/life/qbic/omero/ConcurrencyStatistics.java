@@ -0,0 +1,72 @@
+package life.qbic.omero;
+
+/**
+ * A snapshot of the admission state of one {@link OperationClass}
+ *
+ * @since 1.3.0
+ */
+public final class ConcurrencyStatistics {
+
+  private final OperationClass operationClass;
+  private final int limit;
+  private final int inFlight;
+  private final int queued;
+  private final long admitted;
+  private final long rejected;
+
+  ConcurrencyStatistics(OperationClass operationClass, int limit, int inFlight, int queued,
+      long admitted, long rejected) {
+    this.operationClass = operationClass;
+    this.limit = limit;
+    this.inFlight = inFlight;
+    this.queued = queued;
+    this.admitted = admitted;
+    this.rejected = rejected;
+  }
+
+  public OperationClass getOperationClass() {
+    return operationClass;
+  }
+
+  /**
+   * @return the current number of calls admitted concurrently
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return the number of calls running at the moment
+   */
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return the number of calls waiting for admission at the moment
+   */
+  public int getQueued() {
+    return queued;
+  }
+
+  /**
+   * @return the number of calls admitted since the limits were enabled
+   */
+  public long getAdmitted() {
+    return admitted;
+  }
+
+  /**
+   * @return the number of calls rejected since the limits were enabled
+   */
+  public long getRejected() {
+    return rejected;
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrencyStatistics{" + "operationClass=" + operationClass + ", limit=" + limit
+        + ", inFlight=" + inFlight + ", queued=" + queued + ", admitted=" + admitted
+        + ", rejected=" + rejected + '}';
+  }
+}
@@ -0,0 +1,71 @@
+package life.qbic.omero;
+
+/**
+ * Aggregated figures of the images in a dataset or project
+ *
+ * The figures are computed on the server, see
+ * {@link BasicOMEROClient#getDatasetStatistics(java.util.Collection)} and
+ * {@link BasicOMEROClient#getProjectStatistics(java.util.Collection)}. An image contained in
+ * several datasets of a project counts once for the project.
+ *
+ * @since 1.3.0
+ */
+public final class ContainerStatistics {
+
+  private final long containerId;
+  private final long imageCount;
+  private final long pixelCount;
+  private final long channelCount;
+  private final int maxChannelCount;
+
+  ContainerStatistics(long containerId, long imageCount, long pixelCount, long channelCount,
+      int maxChannelCount) {
+    this.containerId = containerId;
+    this.imageCount = imageCount;
+    this.pixelCount = pixelCount;
+    this.channelCount = channelCount;
+    this.maxChannelCount = maxChannelCount;
+  }
+
+  /**
+   * @return the omero identifier of the dataset or project
+   */
+  public long getContainerId() {
+    return containerId;
+  }
+
+  /**
+   * @return the number of images with pixel data
+   */
+  public long getImageCount() {
+    return imageCount;
+  }
+
+  /**
+   * @return the total pixel volume, the sum of x * y * z * c * t over all images
+   */
+  public long getPixelCount() {
+    return pixelCount;
+  }
+
+  /**
+   * @return the sum of the channel counts of all images
+   */
+  public long getChannelCount() {
+    return channelCount;
+  }
+
+  /**
+   * @return the largest channel count of a single image, 0 if there are no images
+   */
+  public int getMaxChannelCount() {
+    return maxChannelCount;
+  }
+
+  @Override
+  public String toString() {
+    return "ContainerStatistics{" + "containerId=" + containerId + ", imageCount=" + imageCount
+        + ", pixelCount=" + pixelCount + ", channelCount=" + channelCount + ", maxChannelCount="
+        + maxChannelCount + '}';
+  }
+}
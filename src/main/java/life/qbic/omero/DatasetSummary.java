@@ -0,0 +1,34 @@
+package life.qbic.omero;
+
+/**
+ * The name and description of a dataset
+ *
+ * @since 1.3.0
+ */
+public final class DatasetSummary {
+
+  private final long id;
+  private final String name;
+  private final String description;
+
+  DatasetSummary(long id, String name, String description) {
+    this.id = id;
+    this.name = name;
+    this.description = description;
+  }
+
+  /**
+   * @return the omero identifier of the dataset
+   */
+  public long getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+}
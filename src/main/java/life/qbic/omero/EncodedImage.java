@@ -0,0 +1,72 @@
+package life.qbic.omero;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * An image in the compressed form it was delivered in by the OMERO server
+ *
+ * Instances wrap the bytes returned by the rendering engine or the thumbnail store without decoding
+ * them, so they can be handed to a web response as they are.
+ *
+ * @since 1.3.0
+ */
+public final class EncodedImage {
+
+  /**
+   * Content type of images returned by {@link omero.api.RenderingEnginePrx#renderCompressed} and
+   * the {@link omero.api.ThumbnailStorePrx}
+   */
+  public static final String CONTENT_TYPE_JPEG = "image/jpeg";
+
+  private final byte[] data;
+  private final String contentType;
+
+  EncodedImage(byte[] data, String contentType) {
+    this.data = Objects.requireNonNull(data, "data must not be null");
+    this.contentType = Objects.requireNonNull(contentType, "contentType must not be null");
+  }
+
+  /**
+   * Returns the encoded bytes as received from the server. The array is not copied and must not be
+   * modified by the caller.
+   *
+   * @return the encoded image bytes
+   */
+  public byte[] getBytes() {
+    return data;
+  }
+
+  /**
+   * @return a read-only {@link ByteBuffer} view of the encoded bytes
+   */
+  public ByteBuffer asByteBuffer() {
+    return ByteBuffer.wrap(data).asReadOnlyBuffer();
+  }
+
+  /**
+   * Writes the encoded bytes to the given stream. The stream is neither flushed nor closed.
+   *
+   * @param outputStream the sink the image is written to
+   * @throws IOException if writing to the stream fails
+   */
+  public void writeTo(OutputStream outputStream) throws IOException {
+    outputStream.write(data);
+  }
+
+  /**
+   * @return the MIME type of the encoded bytes, e.g. {@value #CONTENT_TYPE_JPEG}
+   */
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * @return the number of encoded bytes
+   */
+  public int getLength() {
+    return data.length;
+  }
+}
@@ -0,0 +1,30 @@
+package life.qbic.omero;
+
+/**
+ * Receives progress updates of an export of many images
+ *
+ * Listeners are called from the thread that started the export, one image at a time.
+ *
+ * @since 1.3.0
+ */
+public interface ExportProgressListener {
+
+  /**
+   * Called after an image was exported
+   *
+   * @param imageId the omero identifier of the exported image
+   * @param completed the number of images processed so far, including failed ones
+   * @param total the number of images to be processed
+   */
+  void onImageExported(long imageId, int completed, int total);
+
+  /**
+   * Called after the export of an image failed. The export continues with the remaining images.
+   *
+   * @param imageId the omero identifier of the image
+   * @param cause the reason of the failure
+   * @param completed the number of images processed so far, including failed ones
+   * @param total the number of images to be processed
+   */
+  void onImageFailed(long imageId, RuntimeException cause, int completed, int total);
+}
@@ -0,0 +1,117 @@
+package life.qbic.omero;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches the original file format of images
+ *
+ * The format of an image does not change after import, so once it is known, links to the image can
+ * be built without asking the server again. Images without a format and images the server did not
+ * return are remembered as well, so repeated requests for them do not reach the server either.
+ *
+ * The index holds a bounded number of images and drops the least recently used ones first.
+ * Instances are thread-safe.
+ *
+ * @since 1.3.0
+ */
+class ImageFormatIndex {
+
+  /**
+   * Stored instead of a format, so these images can be told apart from images that are not known
+   */
+  private enum Mark {
+    /**
+     * The image has no format
+     */
+    NO_FORMAT,
+    /**
+     * The server did not return the image
+     */
+    NOT_FOUND
+  }
+
+  /**
+   * The format or the {@link Mark} of each image
+   */
+  private final Map<Long, Object> formats;
+
+  /**
+   * @param maxEntries the maximal number of images held in the index
+   */
+  ImageFormatIndex(int maxEntries) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("The index must hold at least one image.");
+    }
+    this.formats = new LinkedHashMap<Long, Object>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Object> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @param imageId the omero identifier of an image
+   * @return true if the server did not return the image when its format was last requested
+   */
+  synchronized boolean isMissing(long imageId) {
+    return formats.get(imageId) == Mark.NOT_FOUND;
+  }
+
+  /**
+   * @param imageId the omero identifier of an image
+   * @return the format of the image, null if the image has no format or the format is not known
+   */
+  synchronized String getFormat(long imageId) {
+    Object format = formats.get(imageId);
+    return format instanceof String ? (String) format : null;
+  }
+
+  /**
+   * @param imageId the omero identifier of an image
+   * @param format the format of the image, null or empty if the image has no format
+   */
+  synchronized void put(long imageId, String format) {
+    formats.put(imageId, format != null && !format.isEmpty() ? format : Mark.NO_FORMAT);
+  }
+
+  /**
+   * Remembers an image the server did not return. The mark is removed with
+   * {@link #invalidate(long)} when the image shows up in the event log.
+   *
+   * @param imageId the omero identifier of an image
+   */
+  synchronized void putMissing(long imageId) {
+    formats.put(imageId, Mark.NOT_FOUND);
+  }
+
+  /**
+   * @param imageIds omero identifiers of images
+   * @return the identifiers of images that are neither known nor missing, in iteration order of
+   *         the input
+   */
+  synchronized Set<Long> unknown(Collection<Long> imageIds) {
+    Set<Long> unknownIds = new LinkedHashSet<>();
+    for (Long imageId : imageIds) {
+      if (!formats.containsKey(imageId)) {
+        unknownIds.add(imageId);
+      }
+    }
+    return unknownIds;
+  }
+
+  /**
+   * @param imageId the omero identifier of an image that changed on the server
+   */
+  synchronized void invalidate(long imageId) {
+    formats.remove(imageId);
+  }
+
+  synchronized void clear() {
+    formats.clear();
+  }
+}
@@ -0,0 +1,166 @@
+package life.qbic.omero;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the caches and the background executor used to prefetch thumbnails and image infos
+ *
+ * Prefetch tasks run on a single low priority daemon thread. The task queue is bounded; when it is
+ * full the oldest waiting task is dropped, since the most recent listing is the one a user is most
+ * likely to look at next. The caches are bounded and evict the least recently used entries.
+ *
+ * @since 1.3.0
+ */
+class ImagePrefetcher {
+
+  private static final int QUEUE_CAPACITY = 16;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final int imageCount;
+  private final ThreadPoolExecutor executor;
+  private final Set<Future<?>> pendingTasks = ConcurrentHashMap.newKeySet();
+
+  private final Map<Long, byte[]> thumbnailCache;
+  private final Map<Long, HashMap<String, String>> imageInfoCache;
+
+  private final AtomicLong thumbnailHits = new AtomicLong();
+  private final AtomicLong thumbnailMisses = new AtomicLong();
+  private final AtomicLong imageInfoHits = new AtomicLong();
+  private final AtomicLong imageInfoMisses = new AtomicLong();
+  private final AtomicLong prefetchedThumbnails = new AtomicLong();
+  private final AtomicLong prefetchedImageInfos = new AtomicLong();
+
+  /**
+   * @param imageCount the number of images prefetched after a listing
+   */
+  ImagePrefetcher(int imageCount) {
+    if (imageCount < 1) {
+      throw new IllegalArgumentException("At least one image has to be prefetched.");
+    }
+    this.imageCount = imageCount;
+    this.thumbnailCache = lruCache(4 * imageCount);
+    this.imageInfoCache = lruCache(4 * imageCount);
+    this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+          Thread thread =
+              new Thread(runnable, "omero-prefetch-" + THREAD_COUNT.incrementAndGet());
+          thread.setDaemon(true);
+          thread.setPriority(Thread.MIN_PRIORITY);
+          return thread;
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+  }
+
+  private static <V> Map<Long, V> lruCache(int capacity) {
+    return Collections.synchronizedMap(new LinkedHashMap<Long, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+        return size() > capacity;
+      }
+    });
+  }
+
+  int getImageCount() {
+    return imageCount;
+  }
+
+  /**
+   * Schedules a prefetch task. Failures of the task are ignored, prefetching is best effort.
+   *
+   * @param task the task loading data into this prefetcher
+   */
+  void submit(Runnable task) {
+    pendingTasks.removeIf(Future::isDone);
+    pendingTasks.add(executor.submit(() -> {
+      try {
+        task.run();
+      } catch (RuntimeException ignored) {
+        // the data is loaded on demand instead
+      }
+    }));
+  }
+
+  /**
+   * Cancels all waiting and running prefetch tasks and drops the cached data
+   */
+  void cancel() {
+    executor.getQueue().clear();
+    for (Future<?> future : pendingTasks) {
+      future.cancel(true);
+    }
+    pendingTasks.clear();
+    thumbnailCache.clear();
+    imageInfoCache.clear();
+  }
+
+  /**
+   * Cancels all tasks and stops the background thread
+   */
+  void shutdown() {
+    cancel();
+    executor.shutdownNow();
+  }
+
+  void putThumbnail(long imageId, byte[] thumbnail) {
+    thumbnailCache.put(imageId, thumbnail);
+    prefetchedThumbnails.incrementAndGet();
+  }
+
+  void putImageInfo(long imageId, HashMap<String, String> imageInfo) {
+    imageInfoCache.put(imageId, imageInfo);
+    prefetchedImageInfos.incrementAndGet();
+  }
+
+  /**
+   * Drops the cached data of an image that changed on the server
+   *
+   * @param imageId the image to be dropped
+   */
+  void invalidate(long imageId) {
+    thumbnailCache.remove(imageId);
+    imageInfoCache.remove(imageId);
+  }
+
+  boolean hasThumbnail(long imageId) {
+    return thumbnailCache.containsKey(imageId);
+  }
+
+  boolean hasImageInfo(long imageId) {
+    return imageInfoCache.containsKey(imageId);
+  }
+
+  /**
+   * @param imageId the image the thumbnail belongs to
+   * @return the cached thumbnail or null. Every call is counted as either hit or miss.
+   */
+  byte[] getThumbnail(long imageId) {
+    byte[] thumbnail = thumbnailCache.get(imageId);
+    (thumbnail != null ? thumbnailHits : thumbnailMisses).incrementAndGet();
+    return thumbnail;
+  }
+
+  /**
+   * @param imageId the image the info belongs to
+   * @return a copy of the cached image info or null. Every call is counted as either hit or miss.
+   */
+  HashMap<String, String> getImageInfo(long imageId) {
+    HashMap<String, String> imageInfo = imageInfoCache.get(imageId);
+    (imageInfo != null ? imageInfoHits : imageInfoMisses).incrementAndGet();
+    return imageInfo != null ? new HashMap<>(imageInfo) : null;
+  }
+
+  PrefetchStatistics getStatistics() {
+    return new PrefetchStatistics(thumbnailHits.get(), thumbnailMisses.get(), imageInfoHits.get(),
+        imageInfoMisses.get(), prefetchedThumbnails.get(), prefetchedImageInfos.get());
+  }
+}
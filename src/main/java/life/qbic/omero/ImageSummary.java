@@ -0,0 +1,83 @@
+package life.qbic.omero;
+
+/**
+ * The name, description and pixel dimensions of an image
+ *
+ * The dimensions are those of the default pixels of the image. They are 0 for images without
+ * pixels.
+ *
+ * @since 1.3.0
+ */
+public final class ImageSummary {
+
+  private final long id;
+  private final String name;
+  private final String description;
+  private final int sizeX;
+  private final int sizeY;
+  private final int sizeZ;
+  private final int sizeC;
+  private final int sizeT;
+
+  ImageSummary(long id, String name, String description, int sizeX, int sizeY, int sizeZ,
+      int sizeC, int sizeT) {
+    this.id = id;
+    this.name = name;
+    this.description = description;
+    this.sizeX = sizeX;
+    this.sizeY = sizeY;
+    this.sizeZ = sizeZ;
+    this.sizeC = sizeC;
+    this.sizeT = sizeT;
+  }
+
+  /**
+   * @return the omero identifier of the image
+   */
+  public long getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * @return the number of pixels along the X-axis
+   */
+  public int getSizeX() {
+    return sizeX;
+  }
+
+  /**
+   * @return the number of pixels along the Y-axis
+   */
+  public int getSizeY() {
+    return sizeY;
+  }
+
+  /**
+   * @return the number of z-sections
+   */
+  public int getSizeZ() {
+    return sizeZ;
+  }
+
+  /**
+   * @return the number of channels
+   */
+  public int getSizeC() {
+    return sizeC;
+  }
+
+  /**
+   * @return the number of timepoints
+   */
+  public int getSizeT() {
+    return sizeT;
+  }
+}
@@ -0,0 +1,81 @@
+package life.qbic.omero;
+
+/**
+ * Orders positions of records held in primitive arrays by a long key, without boxing
+ *
+ * The sort is a stable merge sort over an int array of positions, so records with equal keys keep
+ * the order in which they were added. Input that is already in order is detected in a single pass
+ * and not sorted.
+ *
+ * @since 1.3.0
+ */
+final class IndexSort {
+
+  private IndexSort() {
+  }
+
+  /**
+   * @param keys the keys of the records
+   * @param size the number of records, the keys beyond are ignored
+   * @return the positions 0 to size - 1 ordered by key
+   */
+  static int[] sortedPositions(long[] keys, int size) {
+    int[] positions = new int[size];
+    for (int i = 0; i < size; i++) {
+      positions[i] = i;
+    }
+    sort(keys, positions);
+    return positions;
+  }
+
+  /**
+   * Sorts positions by the key at each position. Equal keys keep their relative order, so sorting
+   * by a secondary key first and by the primary key second orders by both keys.
+   *
+   * @param keys the keys of the records
+   * @param positions the positions to be ordered, sorted in place
+   */
+  static void sort(long[] keys, int[] positions) {
+    if (isSorted(keys, positions)) {
+      return;
+    }
+    int[] source = positions;
+    int[] target = new int[positions.length];
+    for (int width = 1; width < positions.length; width *= 2) {
+      for (int start = 0; start < positions.length; start += 2 * width) {
+        int middle = Math.min(start + width, positions.length);
+        int end = Math.min(start + 2 * width, positions.length);
+        merge(keys, source, target, start, middle, end);
+      }
+      int[] merged = target;
+      target = source;
+      source = merged;
+    }
+    if (source != positions) {
+      System.arraycopy(source, 0, positions, 0, positions.length);
+    }
+  }
+
+  private static boolean isSorted(long[] keys, int[] positions) {
+    for (int i = 1; i < positions.length; i++) {
+      if (keys[positions[i - 1]] > keys[positions[i]]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void merge(long[] keys, int[] source, int[] target, int start, int middle,
+      int end) {
+    int left = start;
+    int right = middle;
+    for (int i = start; i < end; i++) {
+      // taking from the left run on equal keys keeps the sort stable
+      if (left < middle && (right >= end || keys[source[left]] <= keys[source[right]])) {
+        target[i] = source[left++];
+      } else {
+        target[i] = source[right++];
+      }
+    }
+  }
+}
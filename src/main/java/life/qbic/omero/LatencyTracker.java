@@ -0,0 +1,56 @@
+package life.qbic.omero;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Keeps the latencies of the most recent successful calls per {@link OperationClass} and derives
+ * percentiles from them
+ *
+ * @since 1.3.0
+ */
+class LatencyTracker {
+
+  private static final int WINDOW_SIZE = 256;
+  /**
+   * The number of samples needed before percentiles are reported
+   */
+  private static final int MIN_SAMPLES = 20;
+
+  private final Map<OperationClass, long[]> samples = new EnumMap<>(OperationClass.class);
+  private final Map<OperationClass, Integer> counts = new EnumMap<>(OperationClass.class);
+
+  LatencyTracker() {
+    for (OperationClass operationClass : OperationClass.values()) {
+      samples.put(operationClass, new long[WINDOW_SIZE]);
+      counts.put(operationClass, 0);
+    }
+  }
+
+  synchronized void record(OperationClass operationClass, long latencyNanos) {
+    int count = counts.get(operationClass);
+    samples.get(operationClass)[count % WINDOW_SIZE] = latencyNanos;
+    // wrap around within the int range but stay above the window size
+    counts.put(operationClass, count == Integer.MAX_VALUE ? WINDOW_SIZE : count + 1);
+  }
+
+  /**
+   * @param operationClass the class of the calls
+   * @param percentile the percentile between 0 and 100
+   * @return the latency percentile in nanoseconds or -1 if there are too few samples
+   */
+  long percentile(OperationClass operationClass, double percentile) {
+    long[] recent;
+    synchronized (this) {
+      int count = Math.min(counts.get(operationClass), WINDOW_SIZE);
+      if (count < MIN_SAMPLES) {
+        return -1L;
+      }
+      recent = Arrays.copyOf(samples.get(operationClass), count);
+    }
+    Arrays.sort(recent);
+    int index = (int) Math.ceil(percentile / 100.0 * recent.length) - 1;
+    return recent[Math.max(0, Math.min(recent.length - 1, index))];
+  }
+}
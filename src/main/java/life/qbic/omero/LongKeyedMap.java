@@ -0,0 +1,158 @@
+package life.qbic.omero;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable map from primitive long keys to values
+ *
+ * Keys are kept in a sorted {@code long[]} next to an array of values, so an entry costs one array
+ * slot for the key and one reference for the value; no {@link Long} or map entry objects are
+ * allocated. Lookups use binary search. Instances are created by the client and are thread-safe.
+ *
+ * @param <V> the type of the values
+ * @since 1.3.0
+ */
+public final class LongKeyedMap<V> {
+
+  private static final LongKeyedMap<?> EMPTY = new LongKeyedMap<>(new long[0], new Object[0]);
+
+  /**
+   * Receives the entries of a map
+   *
+   * @param <V> the type of the values
+   */
+  @FunctionalInterface
+  public interface EntryConsumer<V> {
+
+    void accept(long key, V value);
+  }
+
+  private final long[] keys;
+  private final Object[] values;
+
+  private LongKeyedMap(long[] keys, Object[] values) {
+    this.keys = keys;
+    this.values = values;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <V> LongKeyedMap<V> empty() {
+    return (LongKeyedMap<V>) EMPTY;
+  }
+
+  public int size() {
+    return keys.length;
+  }
+
+  public boolean isEmpty() {
+    return keys.length == 0;
+  }
+
+  public boolean containsKey(long key) {
+    return Arrays.binarySearch(keys, key) >= 0;
+  }
+
+  /**
+   * @param key the key
+   * @return the value for the key or null if there is none
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    int position = Arrays.binarySearch(keys, key);
+    return position >= 0 ? (V) values[position] : null;
+  }
+
+  /**
+   * @return a copy of the keys in ascending order
+   */
+  public long[] keys() {
+    return keys.clone();
+  }
+
+  /**
+   * @return an unmodifiable view of the values, ordered by their keys
+   */
+  public List<V> values() {
+    return new AbstractList<V>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public V get(int index) {
+        return (V) values[index];
+      }
+
+      @Override
+      public int size() {
+        return values.length;
+      }
+    };
+  }
+
+  /**
+   * Hands all entries to the consumer in ascending key order
+   *
+   * @param consumer receives the entries
+   */
+  @SuppressWarnings("unchecked")
+  public void forEach(EntryConsumer<? super V> consumer) {
+    for (int i = 0; i < keys.length; i++) {
+      consumer.accept(keys[i], (V) values[i]);
+    }
+  }
+
+  /**
+   * Collects entries in any order. A later value replaces an earlier value of the same key.
+   *
+   * @param <V> the type of the values
+   */
+  static final class Builder<V> {
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    Builder() {
+      this(16);
+    }
+
+    Builder(int expectedSize) {
+      this.keys = new long[Math.max(expectedSize, 1)];
+      this.values = new Object[keys.length];
+    }
+
+    Builder<V> put(long key, V value) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      keys[size] = key;
+      values[size] = value;
+      size++;
+      return this;
+    }
+
+    LongKeyedMap<V> build() {
+      if (size == 0) {
+        return empty();
+      }
+      // the sort is stable, so the last put of a key ends up last; sorted input is not sorted again
+      int[] order = IndexSort.sortedPositions(keys, size);
+
+      long[] sortedKeys = new long[size];
+      Object[] sortedValues = new Object[size];
+      int count = 0;
+      for (int i = 0; i < size; i++) {
+        int position = order[i];
+        if (count > 0 && sortedKeys[count - 1] == keys[position]) {
+          count--;
+        }
+        sortedKeys[count] = keys[position];
+        sortedValues[count] = values[position];
+        count++;
+      }
+      return new LongKeyedMap<>(Arrays.copyOf(sortedKeys, count),
+          Arrays.copyOf(sortedValues, count));
+    }
+  }
+}
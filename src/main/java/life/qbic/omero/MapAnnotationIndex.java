@@ -0,0 +1,378 @@
+package life.qbic.omero;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A local inverted index over the key value pairs of map annotations
+ *
+ * The index maps every key value pair to the projects, datasets and images annotated with it. It
+ * answers exact, prefix and multi-key queries without contacting the server. An index is built
+ * with {@link BasicOMEROClient#buildMapAnnotationIndex()} and kept up to date by the client when
+ * map annotations are added through it. It can be written to disk and loaded again.
+ *
+ * Instances are thread-safe.
+ *
+ * @since 1.3.0
+ */
+public final class MapAnnotationIndex {
+
+  private static final int FILE_MAGIC = 0x4d414e49;
+  /**
+   * Version 1 stored strings with {@link DataOutputStream#writeUTF(String)}, which is limited to
+   * 64 KB per string. Version 2 stores them as length-prefixed UTF-8.
+   */
+  private static final int FILE_VERSION = 2;
+
+  /**
+   * The kinds of objects map annotations are indexed for
+   */
+  public enum ObjectType {
+    PROJECT, DATASET, IMAGE
+  }
+
+  /**
+   * Object ids by value by key, one map per object type
+   */
+  private final Map<ObjectType, Map<String, NavigableMap<String, Set<Long>>>> postings =
+      new HashMap<>();
+  /**
+   * Key value pairs by object id, one map per object type, used to remove objects from the index
+   */
+  private final Map<ObjectType, Map<Long, List<String[]>>> pairsByObject = new HashMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  public MapAnnotationIndex() {
+    for (ObjectType type : ObjectType.values()) {
+      postings.put(type, new HashMap<>());
+      pairsByObject.put(type, new HashMap<>());
+    }
+  }
+
+  /**
+   * Adds a key value pair of an object to the index
+   *
+   * @param type the type of the annotated object
+   * @param objectId the omero identifier of the annotated object
+   * @param key the key of the pair
+   * @param value the value of the pair
+   */
+  public void add(ObjectType type, long objectId, String key, String value) {
+    if (key == null || value == null) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      boolean added = postings.get(type)
+          .computeIfAbsent(key, ignored -> new TreeMap<>())
+          .computeIfAbsent(value, ignored -> new HashSet<>())
+          .add(objectId);
+      if (added) {
+        pairsByObject.get(type)
+            .computeIfAbsent(objectId, ignored -> new ArrayList<>(2))
+            .add(new String[] {key, value});
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes all key value pairs of an object from the index
+   *
+   * @param type the type of the object
+   * @param objectId the omero identifier of the object
+   */
+  public void remove(ObjectType type, long objectId) {
+    lock.writeLock().lock();
+    try {
+      List<String[]> pairs = pairsByObject.get(type).remove(objectId);
+      if (pairs == null) {
+        return;
+      }
+      Map<String, NavigableMap<String, Set<Long>>> keys = postings.get(type);
+      for (String[] pair : pairs) {
+        NavigableMap<String, Set<Long>> values = keys.get(pair[0]);
+        Set<Long> objectIds = values.get(pair[1]);
+        objectIds.remove(objectId);
+        if (objectIds.isEmpty()) {
+          values.remove(pair[1]);
+          if (values.isEmpty()) {
+            keys.remove(pair[0]);
+          }
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @param type the type of the annotated objects
+   * @param key the key of the pair
+   * @param value the value of the pair
+   * @return the ids of all objects annotated with exactly this key value pair
+   */
+  public Set<Long> find(ObjectType type, String key, String value) {
+    lock.readLock().lock();
+    try {
+      NavigableMap<String, Set<Long>> values = postings.get(type).get(key);
+      Set<Long> objectIds = values != null ? values.get(value) : null;
+      return objectIds != null ? new HashSet<>(objectIds) : Collections.emptySet();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @param type the type of the annotated objects
+   * @param key the key of the pair
+   * @param valuePrefix the beginning of the value
+   * @return the ids of all objects annotated with the key and a value starting with the prefix
+   */
+  public Set<Long> findByPrefix(ObjectType type, String key, String valuePrefix) {
+    lock.readLock().lock();
+    try {
+      NavigableMap<String, Set<Long>> values = postings.get(type).get(key);
+      if (values == null) {
+        return Collections.emptySet();
+      }
+      Set<Long> objectIds = new HashSet<>();
+      for (Map.Entry<String, Set<Long>> entry : values.tailMap(valuePrefix, true).entrySet()) {
+        if (!entry.getKey().startsWith(valuePrefix)) {
+          break;
+        }
+        objectIds.addAll(entry.getValue());
+      }
+      return objectIds;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @param type the type of the annotated objects
+   * @param pairs the key value pairs that all have to match
+   * @return the ids of all objects annotated with every given key value pair
+   */
+  public Set<Long> findAll(ObjectType type, Map<String, String> pairs) {
+    lock.readLock().lock();
+    try {
+      List<Set<Long>> matches = new ArrayList<>(pairs.size());
+      for (Map.Entry<String, String> pair : pairs.entrySet()) {
+        NavigableMap<String, Set<Long>> values = postings.get(type).get(pair.getKey());
+        Set<Long> objectIds = values != null ? values.get(pair.getValue()) : null;
+        if (objectIds == null) {
+          return Collections.emptySet();
+        }
+        matches.add(objectIds);
+      }
+      if (matches.isEmpty()) {
+        return Collections.emptySet();
+      }
+      // intersect starting with the smallest set to keep the intermediate result small
+      matches.sort((first, second) -> Integer.compare(first.size(), second.size()));
+      Set<Long> result = new HashSet<>(matches.get(0));
+      for (int i = 1; i < matches.size() && !result.isEmpty(); i++) {
+        result.retainAll(matches.get(i));
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @param type the type of the annotated objects
+   * @return all indexed keys
+   */
+  public Set<String> getKeys(ObjectType type) {
+    lock.readLock().lock();
+    try {
+      return new HashSet<>(postings.get(type).keySet());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of indexed objects of all types
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      int size = 0;
+      for (Map<Long, List<String[]>> objects : pairsByObject.values()) {
+        size += objects.size();
+      }
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Writes the index to a file. Strings of any length are stored once in a string table, object ids
+   * are sorted and delta encoded, and the whole file is deflated. The file is replaced atomically.
+   *
+   * @param file the file the index is written to
+   * @throws IOException if the file could not be written
+   */
+  public void writeTo(Path file) throws IOException {
+    Path temporaryFile = Files.createTempFile(file.toAbsolutePath().getParent(),
+        file.getFileName() + ".", ".part");
+    try {
+      lock.readLock().lock();
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+          new DeflaterOutputStream(Files.newOutputStream(temporaryFile))))) {
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (Map<String, NavigableMap<String, Set<Long>>> keys : postings.values()) {
+          for (Map.Entry<String, NavigableMap<String, Set<Long>>> key : keys.entrySet()) {
+            intern(key.getKey(), stringIds, strings);
+            for (String value : key.getValue().keySet()) {
+              intern(value, stringIds, strings);
+            }
+          }
+        }
+
+        output.writeInt(FILE_MAGIC);
+        output.writeInt(FILE_VERSION);
+        writeVarLong(output, strings.size());
+        for (String string : strings) {
+          writeString(output, string);
+        }
+        for (ObjectType type : ObjectType.values()) {
+          Map<String, NavigableMap<String, Set<Long>>> keys = postings.get(type);
+          int pairCount = 0;
+          for (NavigableMap<String, Set<Long>> values : keys.values()) {
+            pairCount += values.size();
+          }
+          writeVarLong(output, pairCount);
+          for (Map.Entry<String, NavigableMap<String, Set<Long>>> key : keys.entrySet()) {
+            for (Map.Entry<String, Set<Long>> value : key.getValue().entrySet()) {
+              writeVarLong(output, stringIds.get(key.getKey()));
+              writeVarLong(output, stringIds.get(value.getKey()));
+              long[] objectIds = value.getValue().stream().mapToLong(Long::longValue).toArray();
+              Arrays.sort(objectIds);
+              writeVarLong(output, objectIds.length);
+              long previous = 0;
+              for (long objectId : objectIds) {
+                writeVarLong(output, objectId - previous);
+                previous = objectId;
+              }
+            }
+          }
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+      Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  /**
+   * Loads an index written by {@link #writeTo(Path)}
+   *
+   * @param file the file containing the index
+   * @return the loaded index
+   * @throws IOException if the file could not be read or has an unknown format
+   */
+  public static MapAnnotationIndex readFrom(Path file) throws IOException {
+    MapAnnotationIndex index = new MapAnnotationIndex();
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+        new InflaterInputStream(Files.newInputStream(file))))) {
+      if (input.readInt() != FILE_MAGIC) {
+        throw new IOException(file + " is not a map annotation index of a supported version.");
+      }
+      int version = input.readInt();
+      if (version != 1 && version != FILE_VERSION) {
+        throw new IOException(file + " is not a map annotation index of a supported version.");
+      }
+      String[] strings = new String[(int) readVarLong(input)];
+      for (int i = 0; i < strings.length; i++) {
+        strings[i] = version == 1 ? input.readUTF() : readString(input);
+      }
+      for (ObjectType type : ObjectType.values()) {
+        long pairCount = readVarLong(input);
+        for (long pair = 0; pair < pairCount; pair++) {
+          String key = strings[(int) readVarLong(input)];
+          String value = strings[(int) readVarLong(input)];
+          long idCount = readVarLong(input);
+          long objectId = 0;
+          for (long i = 0; i < idCount; i++) {
+            objectId += readVarLong(input);
+            index.add(type, objectId, key, value);
+          }
+        }
+      }
+    }
+    return index;
+  }
+
+  private static void intern(String string, Map<String, Integer> stringIds, List<String> strings) {
+    if (!stringIds.containsKey(string)) {
+      stringIds.put(string, strings.size());
+      strings.add(string);
+    }
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(output, bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    long length = readVarLong(input);
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Malformed string length " + length + ".");
+    }
+    byte[] bytes = new byte[(int) length];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      output.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    output.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInputStream input) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte next = input.readByte();
+      value |= (long) (next & 0x7F) << shift;
+      if ((next & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length number.");
+  }
+}
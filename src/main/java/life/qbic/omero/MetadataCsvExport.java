@@ -0,0 +1,199 @@
+package life.qbic.omero;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams the metadata of many images into a CSV file
+ *
+ * Image ids are read page by page from the source. The rows of a page are fetched on a pool of
+ * worker threads while earlier pages are written, and the pages are written in the order they were
+ * read. At most one page per worker and the page being written are held in memory, so the memory
+ * use does not depend on the number of images. The rows are written to a temporary file next to
+ * the target, which replaces the target once the export is complete.
+ *
+ * The output follows RFC 4180: fields containing commas, quotes or line breaks are quoted, and
+ * lines end with CRLF.
+ *
+ * @since 1.3.0
+ */
+class MetadataCsvExport {
+
+  /**
+   * Provides the images and their rows
+   */
+  interface RowSource {
+
+    /**
+     * @param afterImageId only images with a larger id are returned
+     * @param limit the maximal number of ids returned
+     * @return image ids in ascending order, at most limit many. Fewer ids than the limit mean there
+     *         are no more images.
+     */
+    List<Long> nextImageIds(long afterImageId, int limit);
+
+    /**
+     * Called concurrently from the worker threads
+     *
+     * @param imageIds the ids of a page
+     * @return one row per image in the order of the ids, null for images that no longer exist
+     */
+    List<String[]> fetchRows(List<Long> imageIds);
+  }
+
+  /**
+   * A page of image ids and its rows once they are fetched
+   */
+  private static final class Page {
+
+    private final List<Long> imageIds;
+    private final Future<List<String[]>> rows;
+
+    Page(List<Long> imageIds, Future<List<String[]>> rows) {
+      this.imageIds = imageIds;
+      this.rows = rows;
+    }
+  }
+
+  private final String[] header;
+  private final RowSource source;
+  private final int pageSize;
+
+  /**
+   * @param header the names of the columns
+   * @param source provides the images and their rows
+   * @param pageSize the number of images fetched per page
+   */
+  MetadataCsvExport(String[] header, RowSource source, int pageSize) {
+    this.header = header;
+    this.source = source;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Writes the header and the rows of all images of the source
+   *
+   * @param target the file the rows are written to
+   * @param parallelism the maximal number of pages fetched concurrently
+   * @param total the expected number of images, reported to the listener
+   * @param listener receives progress updates from the calling thread, may be null
+   * @return the number of rows written
+   * @throws IOException if the file could not be written
+   */
+  long writeTo(Path target, int parallelism, int total, ExportProgressListener listener)
+      throws IOException {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1.");
+    }
+
+    Path temporaryFile = Files.createTempFile(target.toAbsolutePath().getParent(),
+        target.getFileName() + ".", ".part");
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+      Thread thread = new Thread(runnable, "omero-metadata-export");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      long rowCount = 0;
+      int completed = 0;
+      try (BufferedWriter writer =
+          Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+        writeRow(writer, header);
+
+        Deque<Page> pages = new ArrayDeque<>();
+        long afterImageId = 0L;
+        boolean morePages = true;
+        while (true) {
+          // keep every worker busy with a page while the oldest page is written
+          while (morePages && pages.size() < parallelism) {
+            List<Long> imageIds = source.nextImageIds(afterImageId, pageSize);
+            morePages = imageIds.size() >= pageSize;
+            if (imageIds.isEmpty()) {
+              break;
+            }
+            afterImageId = imageIds.get(imageIds.size() - 1);
+            pages.add(new Page(imageIds, executor.submit(() -> source.fetchRows(imageIds))));
+          }
+          Page page = pages.poll();
+          if (page == null) {
+            break;
+          }
+
+          List<String[]> rows = awaitRows(page);
+          for (int i = 0; i < page.imageIds.size(); i++) {
+            long imageId = page.imageIds.get(i);
+            String[] row = rows.get(i);
+            completed++;
+            if (row == null) {
+              if (listener != null) {
+                listener.onImageFailed(imageId, new NonRetryableOperationException(
+                    "Image " + imageId + " no longer exists.", null), completed, total);
+              }
+              continue;
+            }
+            writeRow(writer, row);
+            rowCount++;
+            if (listener != null) {
+              listener.onImageExported(imageId, completed, total);
+            }
+          }
+        }
+      }
+      Files.move(temporaryFile, target, StandardCopyOption.REPLACE_EXISTING);
+      return rowCount;
+    } finally {
+      executor.shutdownNow();
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  private static List<String[]> awaitRows(Page page) {
+    try {
+      return page.rows.get();
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Export was interrupted.", interruptedException);
+    } catch (ExecutionException executionException) {
+      if (executionException.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) executionException.getCause();
+      }
+      throw new RuntimeException("Task aborted unexpectedly.", executionException);
+    }
+  }
+
+  /**
+   * Writes a row, null fields are written as empty fields
+   */
+  static void writeRow(Writer writer, String[] fields) throws IOException {
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      String field = fields[i];
+      if (field == null) {
+        continue;
+      }
+      if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0
+          && field.indexOf('\r') < 0) {
+        writer.write(field);
+      } else {
+        writer.write('"');
+        writer.write(field.replace("\"", "\"\""));
+        writer.write('"');
+      }
+    }
+    writer.write("\r\n");
+  }
+}
@@ -0,0 +1,15 @@
+package life.qbic.omero;
+
+/**
+ * Thrown when a call to the OMERO server failed for a reason that does not go away by itself, such
+ * as missing permissions, invalid arguments or objects that do not exist
+ *
+ * @see RetryableOperationException
+ * @since 1.3.0
+ */
+public class NonRetryableOperationException extends RuntimeException {
+
+  NonRetryableOperationException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,389 @@
+package life.qbic.omero;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A size-capped local cache for generated OME-TIFF files
+ *
+ * Files are keyed by image id and image version, so a changed image is exported again while an
+ * unchanged image is served from disk, also after a restart. Files are written to a temporary file
+ * first and renamed once complete, so a crash never leaves a truncated file behind under a valid
+ * name. When the total size exceeds the budget, the least recently used files are deleted.
+ *
+ * Files are handed out as pinned {@link Entry entries}, which are not evicted while they are open
+ * and stay readable even if another process deletes the file. There is one cache per directory
+ * within a process, and files written by other processes into the same directory are picked up on
+ * lookup. Concurrent requests for the same file within a process wait for a single write.
+ *
+ * @since 1.3.0
+ */
+class OmeTiffCache {
+
+  private static final Pattern FILE_NAME_PATTERN =
+      Pattern.compile("generated_(\\d+)_(-?\\d+)\\.ome\\.tiff");
+  private static final String TEMPORARY_SUFFIX = ".part";
+  /**
+   * The age after which a temporary file is considered a leftover of an interrupted write. Younger
+   * temporary files may belong to a write of another process.
+   */
+  private static final long STALE_TEMPORARY_FILE_MILLIS = 24L * 60 * 60 * 1000;
+
+  /**
+   * The caches of this process by directory
+   */
+  private static final Map<Path, OmeTiffCache> CACHES = new HashMap<>();
+
+  /**
+   * Writes the content of a cache entry to the given path
+   */
+  interface ContentWriter {
+
+    void write(Path target) throws IOException;
+  }
+
+  /**
+   * A cache file in use. The file is not evicted before the entry is closed.
+   */
+  final class Entry implements AutoCloseable {
+
+    private final String fileName;
+    private final FileChannel channel;
+
+    private Entry(String fileName, FileChannel channel) {
+      this.fileName = fileName;
+      this.channel = channel;
+    }
+
+    Path getFile() {
+      return directory.resolve(fileName);
+    }
+
+    long size() throws IOException {
+      return channel.size();
+    }
+
+    /**
+     * @return a stream over the content of the file from its beginning. Closing the stream closes
+     *         the entry's channel, the entry itself still has to be closed.
+     */
+    InputStream newInputStream() throws IOException {
+      return Channels.newInputStream(channel.position(0));
+    }
+
+    @Override
+    public void close() {
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+        // the channel was only read
+      }
+      unpin(fileName);
+    }
+  }
+
+  private final Path directory;
+  private long maxBytes;
+  /**
+   * File sizes by file name in access order, the least recently used file comes first
+   */
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  /**
+   * The number of open entries by file name
+   */
+  private final Map<String, Integer> pins = new HashMap<>();
+  /**
+   * The writes in progress by file name, completed once the write ended, also if it failed
+   */
+  private final Map<String, CompletableFuture<Void>> writes = new HashMap<>();
+  private long totalBytes;
+
+  /**
+   * Returns the cache of the given directory, opening it if this process has not opened it yet.
+   * The budget of an open cache is replaced by the given one.
+   *
+   * @param directory the directory the files are stored in, created if missing
+   * @param maxBytes the disk budget of the cache in bytes
+   * @return the cache of the directory
+   */
+  static OmeTiffCache open(Path directory, long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("The cache size must be positive.");
+    }
+    Path key = directory.toAbsolutePath().normalize();
+    OmeTiffCache cache;
+    synchronized (CACHES) {
+      cache = CACHES.get(key);
+      if (cache == null) {
+        cache = new OmeTiffCache(key, maxBytes);
+        CACHES.put(key, cache);
+        return cache;
+      }
+    }
+    synchronized (cache) {
+      cache.maxBytes = maxBytes;
+      cache.evict(null);
+    }
+    return cache;
+  }
+
+  /**
+   * Opens a cache in the given directory. Files from previous runs are reused, leftovers of
+   * interrupted writes are deleted once they are older than a day.
+   *
+   * @param directory the directory the files are stored in, created if missing
+   * @param maxBytes the disk budget of the cache in bytes
+   */
+  private OmeTiffCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+
+    try {
+      Files.createDirectories(directory);
+      List<Path> files = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path file : stream) {
+          String fileName = file.getFileName().toString();
+          if (fileName.endsWith(TEMPORARY_SUFFIX)) {
+            if (System.currentTimeMillis() - lastModified(file).toMillis()
+                > STALE_TEMPORARY_FILE_MILLIS) {
+              Files.deleteIfExists(file);
+            }
+          } else if (FILE_NAME_PATTERN.matcher(fileName).matches()) {
+            files.add(file);
+          }
+        }
+      }
+      files.sort(Comparator.comparing(OmeTiffCache::lastModified));
+      for (Path file : files) {
+        long size = Files.size(file);
+        entries.put(file.getFileName().toString(), size);
+        totalBytes += size;
+      }
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not open OME-TIFF cache in " + directory, ioException);
+    }
+    synchronized (this) {
+      evict(null);
+    }
+  }
+
+  private static FileTime lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException ioException) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  private static String fileName(long imageId, long version) {
+    return "generated_" + imageId + "_" + version + ".ome.tiff";
+  }
+
+  /**
+   * @param imageId the omero identifier of the image
+   * @param version the version of the image
+   * @return the pinned cache file, to be closed after use, or null if there is none
+   */
+  Entry lookup(long imageId, long version) {
+    String fileName = fileName(imageId, version);
+    Path file = directory.resolve(fileName);
+    Entry entry;
+    synchronized (this) {
+      FileChannel channel;
+      try {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+      } catch (IOException ioException) {
+        // the file was never written or removed behind our back
+        Long size = entries.remove(fileName);
+        if (size != null) {
+          totalBytes -= size;
+        }
+        return null;
+      }
+      if (!entries.containsKey(fileName)) {
+        // written by another process
+        try {
+          long size = channel.size();
+          entries.put(fileName, size);
+          totalBytes += size;
+        } catch (IOException ignored) {
+          // the file is counted once it is written again
+        }
+      }
+      // marks the file as most recently used
+      entries.get(fileName);
+      entry = pin(fileName, channel);
+    }
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException ignored) {
+      // the access time only orders eviction after a restart
+    }
+    return entry;
+  }
+
+  /**
+   * Returns the cached file for the given image version, writing it first if it is not cached. If
+   * the file is being written for another caller, the write is awaited instead of started again;
+   * should that write fail, the file is written for this caller.
+   *
+   * @param imageId the omero identifier of the image
+   * @param version the version of the image
+   * @param writer writes the file content if the file is not cached
+   * @return the pinned cache file, to be closed after use
+   * @throws IOException if the file could not be written
+   */
+  Entry getOrCreate(long imageId, long version, ContentWriter writer) throws IOException {
+    String fileName = fileName(imageId, version);
+    while (true) {
+      Entry cachedFile = lookup(imageId, version);
+      if (cachedFile != null) {
+        return cachedFile;
+      }
+
+      CompletableFuture<Void> write;
+      boolean writing = false;
+      synchronized (this) {
+        write = writes.get(fileName);
+        if (write == null) {
+          write = new CompletableFuture<>();
+          writes.put(fileName, write);
+          writing = true;
+        }
+      }
+      if (!writing) {
+        awaitWrite(write);
+        continue;
+      }
+
+      try {
+        // the file may have been written between the lookup and the registration of the write
+        cachedFile = lookup(imageId, version);
+        return cachedFile != null ? cachedFile : write(imageId, fileName, writer);
+      } finally {
+        synchronized (this) {
+          writes.remove(fileName);
+        }
+        write.complete(null);
+      }
+    }
+  }
+
+  private static void awaitWrite(CompletableFuture<Void> write) throws IOException {
+    try {
+      write.get();
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a cache file.");
+    } catch (ExecutionException ignored) {
+      // writes are only completed normally, the caller looks the file up afterwards
+    }
+  }
+
+  private Entry write(long imageId, String fileName, ContentWriter writer) throws IOException {
+    Path target = directory.resolve(fileName);
+    Path temporaryFile = Files.createTempFile(directory, fileName + ".", TEMPORARY_SUFFIX);
+    try {
+      writer.write(temporaryFile);
+      try {
+        Files.move(temporaryFile, target, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException atomicMoveNotSupportedException) {
+        Files.move(temporaryFile, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+
+    synchronized (this) {
+      FileChannel channel = FileChannel.open(target, StandardOpenOption.READ);
+      long size = channel.size();
+      Long previousSize = entries.put(fileName, size);
+      totalBytes += size - (previousSize != null ? previousSize : 0L);
+      Entry entry = pin(fileName, channel);
+      removeOtherVersions(imageId, fileName);
+      evict(fileName);
+      return entry;
+    }
+  }
+
+  private Entry pin(String fileName, FileChannel channel) {
+    pins.merge(fileName, 1, Integer::sum);
+    return new Entry(fileName, channel);
+  }
+
+  private synchronized void unpin(String fileName) {
+    if (pins.merge(fileName, -1, Integer::sum) <= 0) {
+      pins.remove(fileName);
+      // files skipped while they were pinned are evicted now
+      evict(null);
+    }
+  }
+
+  private void removeOtherVersions(long imageId, String currentFileName) {
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      Matcher matcher = FILE_NAME_PATTERN.matcher(entry.getKey());
+      if (!entry.getKey().equals(currentFileName) && !pins.containsKey(entry.getKey())
+          && matcher.matches() && Long.parseLong(matcher.group(1)) == imageId) {
+        delete(entry.getKey());
+        totalBytes -= entry.getValue();
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Deletes least recently used files until the cache fits into its budget. Pinned files are
+   * skipped.
+   *
+   * @param keptFileName a file that must not be deleted, may be null
+   */
+  private void evict(String keptFileName) {
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      if (entry.getKey().equals(keptFileName) || pins.containsKey(entry.getKey())) {
+        continue;
+      }
+      delete(entry.getKey());
+      totalBytes -= entry.getValue();
+      iterator.remove();
+    }
+  }
+
+  private void delete(String fileName) {
+    try {
+      Files.deleteIfExists(directory.resolve(fileName));
+    } catch (IOException ignored) {
+      // the file is overwritten when the image is exported again
+    }
+  }
+
+  synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+}
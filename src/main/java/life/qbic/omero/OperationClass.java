@@ -0,0 +1,30 @@
+package life.qbic.omero;
+
+/**
+ * The classes of server calls that are admitted separately when concurrency limits are enabled
+ *
+ * @see BasicOMEROClient#enableConcurrencyLimits(int, long, java.util.concurrent.TimeUnit)
+ * @since 1.3.0
+ */
+public enum OperationClass {
+  /**
+   * Listing and reading projects, datasets, images and annotations
+   */
+  BROWSE,
+  /**
+   * Rendering image planes
+   */
+  RENDER,
+  /**
+   * Loading thumbnails
+   */
+  THUMBNAIL,
+  /**
+   * Generating OME-TIFFs and downloading files
+   */
+  EXPORT,
+  /**
+   * Creating objects, adding annotations and uploading files
+   */
+  UPLOAD
+}
@@ -0,0 +1,27 @@
+package life.qbic.omero;
+
+/**
+ * Thrown when a server call is not admitted because the concurrency limit of its operation class
+ * is reached and the call could not be queued or waited too long
+ *
+ * The call was not sent to the server, so it can safely be tried again later.
+ *
+ * @see BasicOMEROClient#enableConcurrencyLimits(int, long, java.util.concurrent.TimeUnit)
+ * @since 1.3.0
+ */
+public class OperationRejectedException extends RetryableOperationException {
+
+  private final OperationClass operationClass;
+
+  OperationRejectedException(String message, OperationClass operationClass) {
+    super(message);
+    this.operationClass = operationClass;
+  }
+
+  /**
+   * @return the operation class whose limit was reached
+   */
+  public OperationClass getOperationClass() {
+    return operationClass;
+  }
+}
@@ -0,0 +1,26 @@
+package life.qbic.omero;
+
+/**
+ * Thrown when a call to the OMERO server did not complete before its deadline
+ *
+ * The caller is released when the deadline passes; the server may still complete the call.
+ *
+ * @see BasicOMEROClient#setCallTimeout(long, java.util.concurrent.TimeUnit)
+ * @since 1.3.0
+ */
+public class OperationTimeoutException extends RetryableOperationException {
+
+  private final OperationClass operationClass;
+
+  OperationTimeoutException(String message, OperationClass operationClass) {
+    super(message);
+    this.operationClass = operationClass;
+  }
+
+  /**
+   * @return the class of the call that timed out
+   */
+  public OperationClass getOperationClass() {
+    return operationClass;
+  }
+}
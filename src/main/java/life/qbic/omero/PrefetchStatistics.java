@@ -0,0 +1,77 @@
+package life.qbic.omero;
+
+/**
+ * A snapshot of the prefetch counters of a {@link BasicOMEROClient}
+ *
+ * A hit is a thumbnail or image info request that was answered from the prefetch cache, a miss is
+ * one that had to be sent to the server.
+ *
+ * @since 1.3.0
+ */
+public final class PrefetchStatistics {
+
+  private final long thumbnailHits;
+  private final long thumbnailMisses;
+  private final long imageInfoHits;
+  private final long imageInfoMisses;
+  private final long prefetchedThumbnails;
+  private final long prefetchedImageInfos;
+
+  PrefetchStatistics(long thumbnailHits, long thumbnailMisses, long imageInfoHits,
+      long imageInfoMisses, long prefetchedThumbnails, long prefetchedImageInfos) {
+    this.thumbnailHits = thumbnailHits;
+    this.thumbnailMisses = thumbnailMisses;
+    this.imageInfoHits = imageInfoHits;
+    this.imageInfoMisses = imageInfoMisses;
+    this.prefetchedThumbnails = prefetchedThumbnails;
+    this.prefetchedImageInfos = prefetchedImageInfos;
+  }
+
+  public long getThumbnailHits() {
+    return thumbnailHits;
+  }
+
+  public long getThumbnailMisses() {
+    return thumbnailMisses;
+  }
+
+  public long getImageInfoHits() {
+    return imageInfoHits;
+  }
+
+  public long getImageInfoMisses() {
+    return imageInfoMisses;
+  }
+
+  /**
+   * @return the number of thumbnails loaded into the cache in the background
+   */
+  public long getPrefetchedThumbnails() {
+    return prefetchedThumbnails;
+  }
+
+  /**
+   * @return the number of image infos loaded into the cache in the background
+   */
+  public long getPrefetchedImageInfos() {
+    return prefetchedImageInfos;
+  }
+
+  /**
+   * @return the share of thumbnail and image info requests served from the cache, 0 if there were
+   *         no requests
+   */
+  public double getHitRate() {
+    long hits = thumbnailHits + imageInfoHits;
+    long total = hits + thumbnailMisses + imageInfoMisses;
+    return total == 0 ? 0.0 : (double) hits / total;
+  }
+
+  @Override
+  public String toString() {
+    return "PrefetchStatistics{" + "thumbnailHits=" + thumbnailHits + ", thumbnailMisses="
+        + thumbnailMisses + ", imageInfoHits=" + imageInfoHits + ", imageInfoMisses="
+        + imageInfoMisses + ", prefetchedThumbnails=" + prefetchedThumbnails
+        + ", prefetchedImageInfos=" + prefetchedImageInfos + '}';
+  }
+}
@@ -0,0 +1,263 @@
+package life.qbic.omero;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import omero.ServerError;
+import omero.api.RawFileStorePrx;
+
+/**
+ * Downloads an original file from the OMERO raw file store in parallel byte ranges
+ *
+ * The file is split into chunks which are read by several raw file store sessions and written to a
+ * pre-sized file with positional writes. Completed chunks are forced to disk and then recorded in a
+ * progress file next to the partial download, so an interrupted transfer continues with the
+ * missing chunks only and a recorded chunk never holds unwritten data after a crash. The
+ * partial file replaces the target once all chunks are written and the checksum matches.
+ *
+ * @since 1.3.0
+ */
+class RangedFileDownload {
+
+  private static final int PROGRESS_MAGIC = 0x4f524644;
+  private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+  /**
+   * The size of a single read from the raw file store, kept well below the Ice message size limit
+   */
+  private static final int READ_SIZE = 1024 * 1024;
+
+  private final long fileId;
+  private final long size;
+  private final String expectedSha1;
+  private final Path target;
+  private final Path partialFile;
+  private final Path progressFile;
+  private final int chunkCount;
+  private final BitSet completedChunks;
+
+  /**
+   * @param fileId the id of the original file
+   * @param size the size of the original file in bytes
+   * @param expectedSha1 the hex encoded SHA1 hash of the file, null to skip verification
+   * @param target the path the file is written to
+   */
+  RangedFileDownload(long fileId, long size, String expectedSha1, Path target) {
+    this.fileId = fileId;
+    this.size = size;
+    this.expectedSha1 = expectedSha1;
+    this.target = target;
+    this.partialFile = target.resolveSibling(target.getFileName() + ".part");
+    this.progressFile = target.resolveSibling(target.getFileName() + ".part.progress");
+    this.chunkCount = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    this.completedChunks = loadProgress();
+  }
+
+  /**
+   * Reads the chunks completed by an earlier attempt. Progress of another file or a damaged
+   * progress file is discarded.
+   */
+  private BitSet loadProgress() {
+    if (!Files.exists(partialFile)) {
+      return new BitSet(chunkCount);
+    }
+    try (DataInputStream input = new DataInputStream(Files.newInputStream(progressFile))) {
+      if (input.readInt() == PROGRESS_MAGIC && input.readLong() == fileId
+          && input.readLong() == size && input.readInt() == CHUNK_SIZE
+          && Files.size(partialFile) == size) {
+        byte[] bits = new byte[input.readInt()];
+        input.readFully(bits);
+        return BitSet.valueOf(bits);
+      }
+    } catch (IOException ignored) {
+      // start over
+    }
+    return new BitSet(chunkCount);
+  }
+
+  private synchronized void markCompleted(int chunk) throws IOException {
+    completedChunks.set(chunk);
+    Path temporaryFile = progressFile.resolveSibling(progressFile.getFileName() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(temporaryFile))) {
+      byte[] bits = completedChunks.toByteArray();
+      output.writeInt(PROGRESS_MAGIC);
+      output.writeLong(fileId);
+      output.writeLong(size);
+      output.writeInt(CHUNK_SIZE);
+      output.writeInt(bits.length);
+      output.write(bits);
+    }
+    Files.move(temporaryFile, progressFile, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private long chunkLength(int chunk) {
+    return Math.min(CHUNK_SIZE, size - (long) chunk * CHUNK_SIZE);
+  }
+
+  /**
+   * Downloads all missing chunks, verifies the checksum and moves the file to the target.
+   *
+   * @param parallelism the number of concurrent raw file store sessions
+   * @param permits admits a session, the permit is held while the session is open
+   * @param storeFactory opens a new raw file store session
+   * @throws IOException if the local file could not be written or the checksum does not match
+   */
+  void run(int parallelism, Supplier<ConcurrencyLimiter.Permit> permits,
+      Supplier<RawFileStorePrx> storeFactory) throws IOException {
+    List<Integer> missingChunks = new ArrayList<>();
+    for (int chunk = completedChunks.nextClearBit(0); chunk < chunkCount;
+        chunk = completedChunks.nextClearBit(chunk + 1)) {
+      missingChunks.add(chunk);
+    }
+
+    try (FileChannel channel = FileChannel.open(partialFile, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE)) {
+      if (channel.size() != size) {
+        channel.truncate(size);
+        if (size > 0) {
+          // allocate the full length up front so positional writes never extend the file
+          channel.write(ByteBuffer.allocate(1), size - 1);
+        }
+      }
+
+      if (!missingChunks.isEmpty()) {
+        downloadChunks(channel, missingChunks, Math.min(parallelism, missingChunks.size()),
+            permits, storeFactory);
+      }
+      channel.force(true);
+    }
+
+    verifyChecksum();
+    Files.move(partialFile, target, StandardCopyOption.REPLACE_EXISTING);
+    Files.deleteIfExists(progressFile);
+  }
+
+  private void downloadChunks(FileChannel channel, List<Integer> chunks, int workers,
+      Supplier<ConcurrencyLimiter.Permit> permits, Supplier<RawFileStorePrx> storeFactory)
+      throws IOException {
+    AtomicInteger nextChunk = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+      Thread thread = new Thread(runnable, "omero-download-" + fileId);
+      thread.setDaemon(true);
+      return thread;
+    });
+    List<Future<Void>> futures = new ArrayList<>();
+    try {
+      for (int worker = 0; worker < workers; worker++) {
+        futures.add(executor.submit(() -> {
+          try (ConcurrencyLimiter.Permit permit = permits.get()) {
+            RawFileStorePrx store = storeFactory.get();
+            try {
+              store.setFileId(fileId);
+              int index;
+              while ((index = nextChunk.getAndIncrement()) < chunks.size()) {
+                int chunk = chunks.get(index);
+                transferChunk(store, channel, chunk);
+                // the chunk must be on disk before the progress file claims it
+                channel.force(false);
+                markCompleted(chunk);
+              }
+              permit.close(true);
+            } finally {
+              try {
+                store.close();
+              } catch (ServerError | Ice.LocalException ignored) {
+                // the server cleans up the service when the session ends
+              }
+            }
+          }
+          return null;
+        }));
+      }
+
+      Exception failure = null;
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException executionException) {
+          if (failure == null) {
+            failure = executionException;
+          }
+        }
+      }
+      if (failure != null) {
+        Throwable cause = failure.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new RuntimeException("Download of original file " + fileId + " failed.", cause);
+      }
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Download of original file " + fileId + " was interrupted.",
+          interruptedException);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void transferChunk(RawFileStorePrx store, FileChannel channel, int chunk)
+      throws ServerError, IOException {
+    long position = (long) chunk * CHUNK_SIZE;
+    long end = position + chunkLength(chunk);
+    while (position < end) {
+      int length = (int) Math.min(READ_SIZE, end - position);
+      byte[] bytes = store.read(position, length);
+      if (bytes.length == 0) {
+        throw new IOException(
+            "Raw file store returned no data at offset " + position + " of file " + fileId);
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+    }
+  }
+
+  private void verifyChecksum() throws IOException {
+    if (expectedSha1 == null) {
+      return;
+    }
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+      throw new IllegalStateException("SHA-1 is not supported by this JVM.",
+          noSuchAlgorithmException);
+    }
+    byte[] buffer = new byte[READ_SIZE];
+    try (InputStream input = Files.newInputStream(partialFile)) {
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    StringBuilder actualSha1 = new StringBuilder();
+    for (byte value : digest.digest()) {
+      actualSha1.append(String.format("%02x", value));
+    }
+    if (!actualSha1.toString().equalsIgnoreCase(expectedSha1)) {
+      Files.deleteIfExists(partialFile);
+      Files.deleteIfExists(progressFile);
+      throw new IOException("Checksum mismatch for original file " + fileId + ": expected "
+          + expectedSha1 + " but was " + actualSha1);
+    }
+  }
+}
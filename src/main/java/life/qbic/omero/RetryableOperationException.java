@@ -0,0 +1,21 @@
+package life.qbic.omero;
+
+/**
+ * Thrown when a call to the OMERO server failed for a transient reason, such as a broken
+ * connection, an expired session, a busy server or a missed deadline
+ *
+ * The same call may succeed when it is tried again, possibly after reconnecting.
+ *
+ * @see NonRetryableOperationException
+ * @since 1.3.0
+ */
+public class RetryableOperationException extends RuntimeException {
+
+  RetryableOperationException(String message) {
+    super(message);
+  }
+
+  RetryableOperationException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
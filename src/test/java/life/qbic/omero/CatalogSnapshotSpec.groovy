@@ -0,0 +1,116 @@
+package life.qbic.omero
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Tests building a catalog snapshot and its file format
+ *
+ * @since 1.3.0
+ */
+class CatalogSnapshotSpec extends Specification {
+
+  @Rule
+  TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+  private static CatalogSnapshot buildSnapshot() {
+    return new CatalogSnapshot.Builder(42L)
+        .addProject(1L, 3L, "project", "a project")
+        .addDataset(20L, 3L, "second dataset", "")
+        .addDataset(10L, 3L, "first dataset", "described")
+        .linkDataset(1L, 20L)
+        .linkDataset(1L, 10L)
+        .addImage(300L, "later image", null, 512, 256, 1, 3, 10)
+        .addImage(100L, "outdated name", "", 1, 1, 1, 1, 1)
+        .addImage(100L, "image", "an image", 1024, 768, 5, 2, 1)
+        .linkImage(10L, 300L)
+        .linkImage(10L, 100L)
+        .linkImage(20L, 100L)
+        .build()
+  }
+
+  def "the builder keeps the image added last and sorts records added in any order"() {
+    when:
+    CatalogSnapshot snapshot = buildSnapshot()
+
+    then:
+    snapshot.getHighWaterMark() == 42L
+    snapshot.getProjectCount() == 1
+    snapshot.getDatasetCount() == 2
+    snapshot.getImageCount() == 2
+    snapshot.getDatasetIds(1L) as List == [10L, 20L]
+    snapshot.getImages(10L) == [100L: "image", 300L: "later image"]
+    snapshot.getImages(20L) == [100L: "image"]
+    snapshot.getImageSummaries(10L).keys() as List == [100L, 300L]
+  }
+
+  def "a snapshot read from a file holds the same catalog as the written snapshot"() {
+    given:
+    CatalogSnapshot snapshot = buildSnapshot()
+    Path file = temporaryFolder.newFile("catalog.bin").toPath()
+
+    when:
+    snapshot.writeTo(file)
+    CatalogSnapshot copy = CatalogSnapshot.readFrom(file)
+
+    then:
+    copy.getHighWaterMark() == 42L
+    copy.getCreatedAt() == snapshot.getCreatedAt()
+    copy.getProjects() == [1L: "project"]
+    copy.getDatasets(1L) == [10L: [name: "first dataset", desc: "described"],
+                            20L: [name: "second dataset", desc: ""]]
+    copy.getImages(10L) == snapshot.getImages(10L)
+    copy.getImageInfo(100L) == [name: "image", desc: "an image", size: "1024 x 768 x 5",
+                                tps: "1", channelCount: "2"]
+    copy.getImageInfo(300L).desc == null
+
+    and:
+    ImageSummary image = copy.getImageSummaries(20L).get(100L)
+    image.getSizeX() == 1024
+    image.getSizeY() == 768
+    image.getSizeZ() == 5
+    image.getSizeC() == 2
+    image.getSizeT() == 1
+
+    and: "the temporary file was moved onto the target"
+    temporaryFolder.getRoot().list() as List == ["catalog.bin"]
+  }
+
+  @Unroll
+  def "a snapshot file is rejected if #corruption"() {
+    given:
+    Path file = temporaryFolder.newFile("catalog.bin").toPath()
+    buildSnapshot().writeTo(file)
+    byte[] content = Files.readAllBytes(file)
+    Files.write(file, corrupt(content))
+
+    when:
+    CatalogSnapshot.readFrom(file)
+
+    then:
+    thrown(IOException)
+
+    where:
+    corruption                 | corrupt
+    "it is truncated"          | { byte[] bytes -> Arrays.copyOf(bytes, bytes.length - 10) }
+    "it ends in the header"    | { byte[] bytes -> Arrays.copyOf(bytes, 30) }
+    "a count is negative"      | { byte[] bytes -> withInt(bytes, 24, -1) }
+    "a count exceeds the file" | { byte[] bytes -> withInt(bytes, 32, 1 << 28) }
+  }
+
+  private static byte[] withInt(byte[] bytes, int position, int value) {
+    byte[] copy = bytes.clone()
+    ByteBuffer.wrap(copy).putInt(position, value)
+    return copy
+  }
+
+  def "an image that is not part of the snapshot has no info"() {
+    expect:
+    buildSnapshot().getImageInfo(999L).isEmpty()
+  }
+}
@@ -0,0 +1,136 @@
+package life.qbic.omero
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static life.qbic.omero.CatalogChange.Action.UPDATE
+import static life.qbic.omero.CatalogChange.ObjectType.IMAGE
+
+/**
+ * Tests following the event log across rounds, including entries that become visible late
+ *
+ * @since 1.3.0
+ */
+class CatalogSyncSpec extends Specification {
+
+  /** the log entries visible on the fake server */
+  List<CatalogChange> log = []
+  List<Long> delivered = []
+
+  CatalogSync.ChangeSource source = { long afterLogId, int limit ->
+    List<CatalogChange> page = log.findAll { it.getLogId() > afterLogId }
+        .sort { it.getLogId() }.take(limit)
+    boolean full = page.size() == limit
+    long scanned = page.isEmpty() ? afterLogId : page.last().getLogId()
+    return new CatalogSync.ChangePage(page, scanned, full)
+  } as CatalogSync.ChangeSource
+
+  CatalogChangeListener listener = { List<CatalogChange> changes ->
+    delivered.addAll(changes*.getLogId())
+  } as CatalogChangeListener
+
+  private static CatalogChange change(long logId) {
+    return new CatalogChange(logId, IMAGE, logId, UPDATE)
+  }
+
+  def "an entry that commits after later entries were synced is found in the next round"() {
+    given:
+    long start = 10_000L
+    CatalogSync sync = new CatalogSync(source, { } as CatalogChangeListener, [listener], start)
+    log << change(start + 1) << change(start + 3)
+
+    when:
+    int firstRound = sync.syncNow()
+
+    then:
+    firstRound == 2
+    sync.getHighWaterMark() == start + 3
+
+    when: "the entry of a longer transaction becomes visible below the mark"
+    log << change(start + 2)
+    int secondRound = sync.syncNow()
+
+    then:
+    secondRound == 1
+    delivered == [start + 1, start + 3, start + 2]
+    sync.getHighWaterMark() == start + 3
+  }
+
+  def "changes in the overlap are handed out only once"() {
+    given:
+    long start = 10_000L
+    CatalogSync sync = new CatalogSync(source, { } as CatalogChangeListener, [listener], start)
+    log.addAll((1..1500).collect { change(start + it) })
+
+    when:
+    int firstRound = sync.syncNow()
+    int secondRound = sync.syncNow()
+
+    then:
+    firstRound == 1500
+    secondRound == 0
+    delivered == (1..1500).collect { start + it }
+  }
+
+  def "changes of a round whose cache update failed are handed out in the next round"() {
+    given:
+    long start = 10_000L
+    boolean failing = true
+    CatalogChangeListener cacheUpdater = { List<CatalogChange> changes ->
+      if (failing) {
+        throw new IllegalStateException("cache update failed")
+      }
+    } as CatalogChangeListener
+    CatalogSync sync = new CatalogSync(source, cacheUpdater, [listener], start)
+    log << change(start + 1)
+
+    when:
+    sync.syncNow()
+
+    then:
+    thrown(IllegalStateException)
+    sync.getHighWaterMark() == start
+
+    when:
+    failing = false
+    int count = sync.syncNow()
+
+    then:
+    count == 1
+    delivered == [start + 1]
+  }
+
+  def "the failure of a round run in the background is kept until a round succeeds"() {
+    given:
+    boolean failing = true
+    CatalogSync.ChangeSource failingSource = { long afterLogId, int limit ->
+      if (failing) {
+        throw new IllegalStateException("server unavailable")
+      }
+      return source.fetchChanges(afterLogId, limit)
+    } as CatalogSync.ChangeSource
+    CatalogSync sync =
+        new CatalogSync(failingSource, { } as CatalogChangeListener, [listener], 10_000L)
+    PollingConditions conditions = new PollingConditions(timeout: 5)
+
+    when:
+    sync.syncInBackground()
+
+    then:
+    conditions.eventually {
+      assert sync.getBackgroundFailure() instanceof IllegalStateException
+    }
+
+    when:
+    failing = false
+    sync.syncInBackground()
+
+    then:
+    conditions.eventually {
+      assert sync.getBackgroundFailure() == null
+    }
+
+    cleanup:
+    sync.stop()
+  }
+}
@@ -0,0 +1,191 @@
+package life.qbic.omero
+
+import java.util.concurrent.TimeUnit
+import java.util.function.LongSupplier
+import spock.lang.Specification
+import spock.lang.Timeout
+import spock.util.concurrent.BlockingVariable
+import spock.util.concurrent.PollingConditions
+
+import static life.qbic.omero.OperationClass.BROWSE
+import static life.qbic.omero.OperationClass.EXPORT
+
+/**
+ * Tests admission, queueing and rejection of calls by the concurrency limiter and the adaptation
+ * of its limit to the latency of successful calls
+ *
+ * @since 1.3.0
+ */
+@Timeout(10)
+class ConcurrencyLimiterSpec extends Specification {
+
+  PollingConditions conditions = new PollingConditions(timeout: 5)
+  long now = 0L
+  LongSupplier clock = { now } as LongSupplier
+
+  /**
+   * Runs as many calls concurrently as the current limit admits, all taking the given time
+   */
+  private void runRound(ConcurrencyLimiter limiter, long latencyMillis, boolean succeeded) {
+    int limit = limiter.getStatistics(BROWSE).getLimit()
+    List<ConcurrencyLimiter.Permit> permits = (1..limit).collect { limiter.acquire(BROWSE) }
+    now += TimeUnit.MILLISECONDS.toNanos(latencyMillis)
+    permits.each { it.close(succeeded) }
+  }
+
+  private static int limitOf(ConcurrencyLimiter limiter) {
+    return limiter.getStatistics(BROWSE).getLimit()
+  }
+
+  def "calls are admitted up to the limit of their operation class"() {
+    given:
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 0, TimeUnit.SECONDS)
+
+    when:
+    ConcurrencyLimiter.Permit first = limiter.acquire(BROWSE)
+    ConcurrencyLimiter.Permit second = limiter.acquire(BROWSE)
+    ConcurrencyLimiter.Permit export = limiter.acquire(EXPORT)
+
+    then:
+    limiter.getStatistics(BROWSE).getInFlight() == 2
+    limiter.getStatistics(BROWSE).getLimit() == 2
+    limiter.getStatistics(EXPORT).getInFlight() == 1
+
+    cleanup:
+    [first, second, export]*.close()
+  }
+
+  def "calls above the limit are rejected right away without a waiting time"() {
+    given:
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 0, TimeUnit.SECONDS)
+    ConcurrencyLimiter.Permit permit = limiter.acquire(BROWSE)
+
+    when:
+    limiter.acquire(BROWSE)
+
+    then:
+    OperationRejectedException rejection = thrown()
+    rejection.getOperationClass() == BROWSE
+    limiter.getStatistics(BROWSE).getRejected() == 1
+
+    and: "speculative calls are not admitted either"
+    limiter.tryAcquire(BROWSE) == null
+
+    cleanup:
+    permit.close()
+  }
+
+  def "a queued call is admitted once a slot is released"() {
+    given:
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 10, TimeUnit.SECONDS)
+    ConcurrencyLimiter.Permit permit = limiter.acquire(BROWSE)
+    BlockingVariable<ConcurrencyLimiter.Permit> queuedPermit = new BlockingVariable<>(5)
+
+    when:
+    Thread.start { queuedPermit.set(limiter.acquire(BROWSE)) }
+    conditions.eventually {
+      assert limiter.getStatistics(BROWSE).getQueued() == 1
+    }
+    permit.close()
+
+    then:
+    queuedPermit.get() != null
+    limiter.getStatistics(BROWSE).getInFlight() == 1
+    limiter.getStatistics(BROWSE).getQueued() == 0
+
+    cleanup:
+    queuedPermit.get().close()
+  }
+
+  def "calls that find the queue full are rejected while waiting calls stay queued"() {
+    given:
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 10, TimeUnit.SECONDS)
+    ConcurrencyLimiter.Permit permit = limiter.acquire(BROWSE)
+    BlockingVariable<ConcurrencyLimiter.Permit> queuedPermit = new BlockingVariable<>(5)
+    Thread.start { queuedPermit.set(limiter.acquire(BROWSE)) }
+    conditions.eventually {
+      assert limiter.getStatistics(BROWSE).getQueued() == 1
+    }
+
+    when:
+    limiter.acquire(BROWSE)
+
+    then:
+    thrown(OperationRejectedException)
+    limiter.getStatistics(BROWSE).getQueued() == 1
+
+    cleanup:
+    permit.close()
+    queuedPermit.get().close()
+  }
+
+  def "calls of the client's own fan-out wait beyond the queue bound"() {
+    given:
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 0, TimeUnit.SECONDS)
+    ConcurrencyLimiter.Permit permit = limiter.acquire(BROWSE)
+    List<BlockingVariable<ConcurrencyLimiter.Permit>> waitingPermits =
+        (1..3).collect { new BlockingVariable<ConcurrencyLimiter.Permit>(5) }
+
+    when:
+    waitingPermits.each { waitingPermit ->
+      Thread.start {
+        ConcurrencyLimiter.Permit admitted = limiter.acquireWaiting(BROWSE)
+        waitingPermit.set(admitted)
+        admitted.close()
+      }
+    }
+    conditions.eventually {
+      assert limiter.getStatistics(BROWSE).getQueued() == 3
+    }
+    permit.close()
+
+    then:
+    waitingPermits.every { it.get() != null }
+    limiter.getStatistics(BROWSE).getRejected() == 0
+    conditions.eventually {
+      assert limiter.getStatistics(BROWSE).getInFlight() == 0
+    }
+  }
+
+  def "the limit grows while calls are as fast as the baseline"() {
+    given:
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 0, TimeUnit.SECONDS, clock)
+    List<Integer> limits = []
+
+    when:
+    10.times {
+      runRound(limiter, 10, true)
+      limits << limitOf(limiter)
+    }
+
+    then:
+    limits.first() > 4
+    limits == limits.toSorted()
+    limits.last() == 20
+  }
+
+  def "the limit shrinks when calls slow down"() {
+    given:
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 0, TimeUnit.SECONDS, clock)
+    10.times { runRound(limiter, 10, true) }
+
+    when:
+    10.times { runRound(limiter, 100, true) }
+
+    then:
+    limitOf(limiter) < 10
+  }
+
+  def "failed calls do not pull the baseline down"() {
+    given:
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 0, TimeUnit.SECONDS, clock)
+    10.times { runRound(limiter, 10, true) }
+
+    when: "a burst of calls fails quickly before calls continue at their usual speed"
+    10.times { runRound(limiter, 1, false) }
+    10.times { runRound(limiter, 10, true) }
+
+    then:
+    limitOf(limiter) == 20
+  }
+}
@@ -0,0 +1,68 @@
+package life.qbic.omero
+
+import spock.lang.Specification
+
+/**
+ * Tests building long keyed maps from entries in any order
+ *
+ * @since 1.3.0
+ */
+class LongKeyedMapSpec extends Specification {
+
+  def "a later value replaces an earlier value of the same key"() {
+    when:
+    LongKeyedMap<String> map = new LongKeyedMap.Builder<String>()
+        .put(5L, "first")
+        .put(3L, "other")
+        .put(5L, "second")
+        .put(5L, "third")
+        .build()
+
+    then:
+    map.size() == 2
+    map.keys() as List == [3L, 5L]
+    map.get(5L) == "third"
+    map.get(3L) == "other"
+  }
+
+  def "entries put in descending order are sorted by key"() {
+    given:
+    LongKeyedMap.Builder<Long> builder = new LongKeyedMap.Builder<>(1)
+    for (long key = 1000L; key > 0L; key--) {
+      builder.put(key, -key)
+    }
+
+    when:
+    LongKeyedMap<Long> map = builder.build()
+
+    then:
+    map.size() == 1000
+    map.keys() as List == (1L..1000L).toList()
+    map.values() == (1L..1000L).collect { -it }
+    map.containsKey(500L)
+    !map.containsKey(1001L)
+    map.get(1001L) == null
+  }
+
+  def "entries are handed to the consumer in ascending key order"() {
+    given:
+    LongKeyedMap<String> map = new LongKeyedMap.Builder<String>()
+        .put(20L, "b")
+        .put(10L, "a")
+        .put(30L, "c")
+        .build()
+    List<String> visited = []
+
+    when:
+    map.forEach({ long key, String value -> visited << "$key=$value".toString() }
+        as LongKeyedMap.EntryConsumer<String>)
+
+    then:
+    visited == ["10=a", "20=b", "30=c"]
+  }
+
+  def "a builder without entries builds an empty map"() {
+    expect:
+    new LongKeyedMap.Builder<String>().build().isEmpty()
+  }
+}
@@ -0,0 +1,89 @@
+package life.qbic.omero
+
+import java.nio.file.Path
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import static life.qbic.omero.MapAnnotationIndex.ObjectType.DATASET
+import static life.qbic.omero.MapAnnotationIndex.ObjectType.IMAGE
+import static life.qbic.omero.MapAnnotationIndex.ObjectType.PROJECT
+
+/**
+ * Tests the queries of the map annotation index and its file format
+ *
+ * @since 1.3.0
+ */
+class MapAnnotationIndexSpec extends Specification {
+
+  @Rule
+  TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+  def "an index read from a file answers the same queries as the written index"() {
+    given:
+    MapAnnotationIndex index = new MapAnnotationIndex()
+    index.add(PROJECT, 1L, "organism", "mouse")
+    index.add(DATASET, 2L, "organism", "mouse")
+    index.add(IMAGE, 3L, "stain", "DAPI")
+    index.add(IMAGE, 4L, "stain", "DAPI")
+    index.add(IMAGE, 4L, "objective", "63x oil")
+    Path file = temporaryFolder.newFile("index.bin").toPath()
+
+    when:
+    index.writeTo(file)
+    MapAnnotationIndex copy = MapAnnotationIndex.readFrom(file)
+
+    then:
+    copy.size() == 4
+    copy.find(PROJECT, "organism", "mouse") == [1L] as Set
+    copy.find(DATASET, "organism", "mouse") == [2L] as Set
+    copy.find(IMAGE, "stain", "DAPI") == [3L, 4L] as Set
+    copy.findAll(IMAGE, [stain: "DAPI", objective: "63x oil"]) == [4L] as Set
+    copy.getKeys(IMAGE) == ["stain", "objective"] as Set
+
+    and: "the temporary file was moved onto the target"
+    temporaryFolder.getRoot().list() as List == ["index.bin"]
+  }
+
+  def "keys and values longer than 64 KB survive a round trip"() {
+    given:
+    String longKey = "k" * 70000
+    String longValue = "ä" * 100000
+    MapAnnotationIndex index = new MapAnnotationIndex()
+    index.add(IMAGE, 7L, longKey, longValue)
+    Path file = temporaryFolder.newFile("index.bin").toPath()
+
+    when:
+    index.writeTo(file)
+    MapAnnotationIndex copy = MapAnnotationIndex.readFrom(file)
+
+    then:
+    copy.find(IMAGE, longKey, longValue) == [7L] as Set
+  }
+
+  def "a removed object is no longer found"() {
+    given:
+    MapAnnotationIndex index = new MapAnnotationIndex()
+    index.add(IMAGE, 3L, "stain", "DAPI")
+    index.add(IMAGE, 4L, "stain", "DAPI")
+
+    when:
+    index.remove(IMAGE, 3L)
+
+    then:
+    index.find(IMAGE, "stain", "DAPI") == [4L] as Set
+    index.size() == 1
+  }
+
+  def "prefix queries match all values starting with the prefix"() {
+    given:
+    MapAnnotationIndex index = new MapAnnotationIndex()
+    index.add(IMAGE, 1L, "objective", "63x oil")
+    index.add(IMAGE, 2L, "objective", "63x water")
+    index.add(IMAGE, 3L, "objective", "20x air")
+
+    expect:
+    index.findByPrefix(IMAGE, "objective", "63x") == [1L, 2L] as Set
+    index.findByPrefix(IMAGE, "objective", "10x").isEmpty()
+  }
+}
@@ -0,0 +1,100 @@
+package life.qbic.omero
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Tests the CSV encoding and the paged export of image metadata
+ *
+ * @since 1.3.0
+ */
+class MetadataCsvExportSpec extends Specification {
+
+  @Rule
+  TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+  @Unroll
+  def "the field #field is written as #encoded"() {
+    given:
+    StringWriter writer = new StringWriter()
+
+    when:
+    MetadataCsvExport.writeRow(writer, [field] as String[])
+
+    then:
+    writer.toString() == encoded + "\r\n"
+
+    where:
+    field                | encoded
+    "plain"              | "plain"
+    ""                   | ""
+    null                 | ""
+    "a,b"                | '"a,b"'
+    'say "hi"'           | '"say ""hi"""'
+    "two\nlines"         | '"two\nlines"'
+    "carriage\rreturn"   | '"carriage\rreturn"'
+  }
+
+  def "fields are separated by commas and null fields stay empty"() {
+    given:
+    StringWriter writer = new StringWriter()
+
+    when:
+    MetadataCsvExport.writeRow(writer, ["1", null, "x,y", ""] as String[])
+
+    then:
+    writer.toString() == '1,,"x,y",\r\n'
+  }
+
+  def "the export writes the rows of all pages in id order and reports missing images"() {
+    given:
+    List<Long> imageIds = (1L..25L).toList()
+    MetadataCsvExport.RowSource source = new MetadataCsvExport.RowSource() {
+      @Override
+      List<Long> nextImageIds(long afterImageId, int limit) {
+        return imageIds.findAll { it > afterImageId }.take(limit)
+      }
+
+      @Override
+      List<String[]> fetchRows(List<Long> ids) {
+        // image 7 no longer exists
+        return ids.collect { it == 7L ? null : [String.valueOf(it), "image " + it] as String[] }
+      }
+    }
+    List<Long> exported = Collections.synchronizedList([])
+    List<Long> failed = Collections.synchronizedList([])
+    ExportProgressListener listener = new ExportProgressListener() {
+      @Override
+      void onImageExported(long imageId, int completed, int total) {
+        exported << imageId
+      }
+
+      @Override
+      void onImageFailed(long imageId, RuntimeException cause, int completed, int total) {
+        failed << imageId
+      }
+    }
+    Path target = temporaryFolder.getRoot().toPath().resolve("metadata.csv")
+
+    when:
+    long rowCount = new MetadataCsvExport(["id", "name"] as String[], source, 4)
+        .writeTo(target, 3, imageIds.size(), listener)
+
+    then:
+    rowCount == 24
+    List<String> lines = new String(Files.readAllBytes(target), StandardCharsets.UTF_8)
+        .split("\r\n") as List
+    lines[0] == "id,name"
+    lines.drop(1) == (imageIds - 7L).collect { "$it,image $it".toString() }
+    exported == imageIds - 7L
+    failed == [7L]
+
+    and: "the temporary file was moved onto the target"
+    temporaryFolder.getRoot().list() as List == ["metadata.csv"]
+  }
+}
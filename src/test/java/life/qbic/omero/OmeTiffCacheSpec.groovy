@@ -0,0 +1,105 @@
+package life.qbic.omero
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Timeout
+
+/**
+ * Tests writing and sharing files of the OME-TIFF cache
+ *
+ * @since 1.3.0
+ */
+@Timeout(10)
+class OmeTiffCacheSpec extends Specification {
+
+  @Rule
+  TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+  ExecutorService executor = Executors.newFixedThreadPool(4)
+
+  def cleanup() {
+    executor.shutdownNow()
+  }
+
+  /**
+   * Requests the same file from four threads at once
+   */
+  private List<Future<Long>> requestConcurrently(OmeTiffCache cache,
+      OmeTiffCache.ContentWriter writer) {
+    return (1..4).collect {
+      executor.submit({
+        OmeTiffCache.Entry entry = cache.getOrCreate(1L, 1L, writer)
+        try {
+          return entry.size()
+        } finally {
+          entry.close()
+        }
+      } as Callable<Long>)
+    }
+  }
+
+  def "concurrent requests for a file that is not cached share a single write"() {
+    given:
+    OmeTiffCache cache = OmeTiffCache.open(temporaryFolder.getRoot().toPath(), 1L << 20)
+    AtomicInteger writes = new AtomicInteger()
+    CountDownLatch release = new CountDownLatch(1)
+    OmeTiffCache.ContentWriter writer = { Path target ->
+      writes.incrementAndGet()
+      release.await(5, TimeUnit.SECONDS)
+      Files.write(target, new byte[100])
+    } as OmeTiffCache.ContentWriter
+
+    when:
+    List<Future<Long>> sizes = requestConcurrently(cache, writer)
+    Thread.sleep(200)
+    release.countDown()
+
+    then:
+    sizes*.get() == [100L] * 4
+    writes.get() == 1
+    cache.getTotalBytes() == 100L
+  }
+
+  def "a failed write is repeated for a caller that waited for it"() {
+    given:
+    OmeTiffCache cache = OmeTiffCache.open(temporaryFolder.getRoot().toPath(), 1L << 20)
+    AtomicInteger writes = new AtomicInteger()
+    CountDownLatch release = new CountDownLatch(1)
+    OmeTiffCache.ContentWriter writer = { Path target ->
+      if (writes.incrementAndGet() == 1) {
+        release.await(5, TimeUnit.SECONDS)
+        throw new IOException("export failed")
+      }
+      Files.write(target, new byte[50])
+    } as OmeTiffCache.ContentWriter
+
+    when:
+    List<Future<Long>> sizes = requestConcurrently(cache, writer)
+    Thread.sleep(200)
+    release.countDown()
+    List<Object> results = sizes.collect { future ->
+      try {
+        return future.get()
+      } catch (ExecutionException failure) {
+        return failure.getCause().getClass()
+      }
+    }
+
+    then:
+    results.count(IOException) == 1
+    results.count(50L) == 3
+    writes.get() == 2
+    temporaryFolder.getRoot().list() as List == ["generated_1_1.ome.tiff"]
+  }
+}
@@ -0,0 +1,135 @@
+package life.qbic.omero
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.security.MessageDigest
+import java.util.function.Supplier
+import omero.api.RawFileStorePrx
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+/**
+ * Tests ranged downloads against a fake raw file store
+ *
+ * @since 1.3.0
+ */
+class RangedFileDownloadSpec extends Specification {
+
+  private static final int CHUNK_SIZE = 4 * 1024 * 1024
+  private static final long FILE_ID = 7L
+
+  @Rule
+  TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+  byte[] content = new byte[2 * CHUNK_SIZE + 1000]
+  List<Long> readPositions = Collections.synchronizedList([])
+  Supplier<ConcurrencyLimiter.Permit> permits = { ConcurrencyLimiter.UNLIMITED } as Supplier
+
+  def setup() {
+    new Random(1L).nextBytes(content)
+  }
+
+  /**
+   * @param availableBytes the number of leading bytes the store returns, reads beyond return no
+   *        data like a store whose session broke
+   */
+  private RawFileStorePrx fakeStore(long availableBytes) {
+    return [
+        setFileId: { long fileId -> },
+        read     : { long position, int length ->
+          readPositions << position
+          if (position >= availableBytes) {
+            return new byte[0]
+          }
+          return Arrays.copyOfRange(content, (int) position,
+              (int) Math.min(position + length, content.length))
+        },
+        close    : { -> }
+    ] as RawFileStorePrx
+  }
+
+  private String sha1() {
+    return MessageDigest.getInstance("SHA-1").digest(content).encodeHex().toString()
+  }
+
+  def "a download writes the complete file and removes the partial files"() {
+    given:
+    Path target = temporaryFolder.getRoot().toPath().resolve("file.bin")
+    RangedFileDownload download = new RangedFileDownload(FILE_ID, content.length, sha1(), target)
+    RawFileStorePrx store = fakeStore(content.length)
+
+    when:
+    download.run(3, permits, { store } as Supplier)
+
+    then:
+    Files.readAllBytes(target) == content
+    !Files.exists(target.resolveSibling("file.bin.part"))
+    !Files.exists(target.resolveSibling("file.bin.part.progress"))
+  }
+
+  def "an interrupted download resumes with the missing chunks only"() {
+    given:
+    Path target = temporaryFolder.getRoot().toPath().resolve("file.bin")
+    RawFileStorePrx brokenStore = fakeStore(CHUNK_SIZE)
+    RawFileStorePrx store = fakeStore(content.length)
+
+    when: "the store stops returning data after the first chunk"
+    new RangedFileDownload(FILE_ID, content.length, sha1(), target)
+        .run(1, permits, { brokenStore } as Supplier)
+
+    then:
+    thrown(IOException)
+    !Files.exists(target)
+    Files.exists(target.resolveSibling("file.bin.part.progress"))
+
+    when: "the download is started again"
+    readPositions.clear()
+    new RangedFileDownload(FILE_ID, content.length, sha1(), target)
+        .run(2, permits, { store } as Supplier)
+
+    then: "the first chunk is not read again"
+    Files.readAllBytes(target) == content
+    !readPositions.isEmpty()
+    readPositions.every { it >= CHUNK_SIZE }
+  }
+
+  def "progress of a different file is discarded"() {
+    given:
+    Path target = temporaryFolder.getRoot().toPath().resolve("file.bin")
+    RawFileStorePrx brokenStore = fakeStore(CHUNK_SIZE)
+    RawFileStorePrx store = fakeStore(content.length)
+    try {
+      new RangedFileDownload(FILE_ID + 1, content.length, null, target)
+          .run(1, permits, { brokenStore } as Supplier)
+    } catch (IOException ignored) {
+      // leaves the progress of the other file behind
+    }
+    readPositions.clear()
+
+    when:
+    new RangedFileDownload(FILE_ID, content.length, sha1(), target)
+        .run(1, permits, { store } as Supplier)
+
+    then:
+    Files.readAllBytes(target) == content
+    readPositions.contains(0L)
+  }
+
+  def "a checksum mismatch fails the download and removes the partial files"() {
+    given:
+    Path target = temporaryFolder.getRoot().toPath().resolve("file.bin")
+    RawFileStorePrx store = fakeStore(content.length)
+
+    when:
+    new RangedFileDownload(FILE_ID, content.length, "0" * 40, target)
+        .run(2, permits, { store } as Supplier)
+
+    then:
+    IOException failure = thrown()
+    failure.message.startsWith("Checksum mismatch")
+    !Files.exists(target)
+    !Files.exists(target.resolveSibling("file.bin.part"))
+    !Files.exists(target.resolveSibling("file.bin.part.progress"))
+  }
+}
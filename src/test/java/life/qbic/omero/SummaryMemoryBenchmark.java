@@ -0,0 +1,111 @@
+package life.qbic.omero;
+
+import java.util.HashMap;
+
+/**
+ * Compares the retained heap of an image catalog held in the map based result model with the
+ * typed summaries in a {@link LongKeyedMap}
+ *
+ * The benchmark is not part of the test suite. Run it after {@code mvn test-compile} with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes life.qbic.omero.SummaryMemoryBenchmark [images]
+ * </pre>
+ *
+ * Both models hold the same names, descriptions and dimensions. The map based model stores them
+ * as returned by {@link BasicOMEROClient#getImageInfo(long, long)}.
+ *
+ * @since 1.3.0
+ */
+public class SummaryMemoryBenchmark {
+
+  private static final int DEFAULT_IMAGE_COUNT = 500_000;
+  private static final int ROUNDS = 5;
+
+  /**
+   * Keeps the allocated object graph reachable until it was measured
+   */
+  private static volatile Object sink;
+
+  public static void main(String[] args) {
+    int imageCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_IMAGE_COUNT;
+
+    // warm up, so class loading does not count towards the first measurement
+    retainedBytes(() -> createMaps(1000));
+    retainedBytes(() -> createSummaries(1000));
+
+    long mapBytes = Long.MAX_VALUE;
+    long summaryBytes = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      mapBytes = Math.min(mapBytes, retainedBytes(() -> createMaps(imageCount)));
+      summaryBytes = Math.min(summaryBytes, retainedBytes(() -> createSummaries(imageCount)));
+    }
+
+    System.out.printf("images:                      %,d%n", imageCount);
+    System.out.printf("HashMap<Long, HashMap<...>>: %,d bytes (%,d per image)%n", mapBytes,
+        mapBytes / imageCount);
+    System.out.printf("LongKeyedMap<ImageSummary>:  %,d bytes (%,d per image)%n", summaryBytes,
+        summaryBytes / imageCount);
+    System.out.printf("ratio:                       %.2f%n", (double) mapBytes / summaryBytes);
+  }
+
+  private interface Allocation {
+
+    Object allocate();
+  }
+
+  /**
+   * @return the heap retained by the allocated object graph
+   */
+  private static long retainedBytes(Allocation allocation) {
+    long before = usedHeap();
+    sink = allocation.allocate();
+    long after = usedHeap();
+    sink = null;
+    return after - before;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static HashMap<Long, HashMap<String, String>> createMaps(int imageCount) {
+    HashMap<Long, HashMap<String, String>> images = new HashMap<Long, HashMap<String, String>>();
+    for (int i = 0; i < imageCount; i++) {
+      HashMap<String, String> imageInfo = new HashMap<String, String>();
+      imageInfo.put("name", name(i));
+      imageInfo.put("desc", description(i));
+      imageInfo.put("size", "1024 x 1024 x " + (i % 64 + 1));
+      imageInfo.put("tps", String.valueOf(i % 10 + 1));
+      imageInfo.put("channels", String.valueOf(i % 4 + 1));
+      images.put((long) i + 1, imageInfo);
+    }
+    return images;
+  }
+
+  private static LongKeyedMap<ImageSummary> createSummaries(int imageCount) {
+    LongKeyedMap.Builder<ImageSummary> images = new LongKeyedMap.Builder<>(imageCount);
+    for (int i = 0; i < imageCount; i++) {
+      images.put((long) i + 1, new ImageSummary((long) i + 1, name(i), description(i), 1024, 1024,
+          i % 64 + 1, i % 4 + 1, i % 10 + 1));
+    }
+    return images.build();
+  }
+
+  private static String name(int image) {
+    return "image_" + image + ".czi";
+  }
+
+  private static String description(int image) {
+    return "Sample " + (image % 1000);
+  }
+}